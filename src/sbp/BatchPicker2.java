@@ -0,0 +1,447 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+import edu.mines.jtk.io.ArrayInputStream;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Headless batch picking of salt boundaries in many 2D sections.
+ * <p>
+ * A manifest lists one section per line, as
+ * <pre>
+ *   image n1 n2 output x1 x2 x1 x2 ...
+ * </pre>
+ * where image is a file of raw big-endian floats, or a SEG-Y file with
+ * suffix .sgy or .segy, in which case n1 and n2 may be zero; output is
+ * the boundary file to write; and the remaining numbers are coordinates
+ * of the seed polygon. Blank lines and lines beginning with # are
+ * ignored. For each section, the image is balanced with a gain and its
+ * envelope computed in one pass, and the boundary initialized from the seed
+ * polygon is refined. The boundary with its normal vectors and refine
+ * parameters is written with {@link BoundaryFile}.
+ * <p>
+ * Sections are processed by a fixed number of worker threads. Before
+ * reading its image, each section reserves an estimate of the memory it
+ * requires from a budget, and waits if the budget is exhausted; a section
+ * that requires more than the entire budget waits until it can run alone.
+ * Parallel loops within sections are scheduled with a {@link LoopScheduler}
+ * that shares the pool of workers, so that no more than the number of 
+ * workers are busy; loops run in parallel mostly when fewer sections than
+ * workers remain. Times for each step are written as comma-separated 
+ * values.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class BatchPicker2 {
+
+  /**
+   * Constructs a batch picker with default parameters: one worker per
+   * processor, a memory budget of 3/4 of the maximum heap, and refine
+   * parameters r=60, d=1, w=10, a=2 with gain half-width 50.
+   */
+  public BatchPicker2() {
+    Runtime rt = Runtime.getRuntime();
+    _nthread = rt.availableProcessors();
+    _maxBytes = rt.maxMemory()/4*3;
+  }
+
+  /**
+   * Sets the number of worker threads.
+   * @param nthread the number of threads.
+   */
+  public void setThreads(int nthread) {
+    _nthread = max(1,nthread);
+  }
+
+  /**
+   * Sets the memory budget for sections processed at the same time.
+   * @param maxBytes the budget, in bytes.
+   */
+  public void setMemoryBudget(long maxBytes) {
+    _maxBytes = maxBytes;
+  }
+
+  /**
+   * Sets the refine parameters.
+   * @param r half-width, in samples, of the band around boundaries.
+   * @param d sampling interval of the band normal to boundaries.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   */
+  public void setRefineParameters(int r, float d, int w, float a) {
+    _r = r; _d = d;
+    _w = w; _a = a;
+  }
+
+  /**
+   * Sets the half-width of the window used to balance amplitudes.
+   * @param sigma the half-width, in samples.
+   */
+  public void setGainSigma(float sigma) {
+    _sigma = sigma;
+  }
+
+  /**
+   * Sets whether boundaries are refined with closed paths.
+   * @param closed true, for closed paths; false, for open paths.
+   * @see SaltPicker2#setClosed(boolean)
+   */
+  public void setClosed(boolean closed) {
+    _closed = closed;
+  }
+
+  /**
+   * Sets the minimum gate for an adaptive gate.
+   * @param gmin the minimum gate; zero, for a fixed gate.
+   * @see SaltPicker2#setAdaptiveGate(int)
+   */
+  public void setAdaptiveGate(int gmin) {
+    _gmin = gmin;
+  }
+
+  /**
+   * Enables or disables pruning of closed picks.
+   * @param prune true, to prune; false, to extend all paths.
+   * @see SaltPicker2#setPruning(boolean)
+   */
+  public void setPruning(boolean prune) {
+    _prune = prune;
+  }
+
+  /**
+   * Sets the length of boundary segments picked in parallel.
+   * @param length number of points per segment; zero, for one path.
+   * @param overlap number of points shared by adjacent segments.
+   * @see SaltPicker2#setSegments(int,int)
+   */
+  public void setSegments(int length, int overlap) {
+    _segment = length;
+    _overlap = overlap;
+  }
+
+  /**
+   * Sets the number of consecutive indices in each task of parallel loops.
+   * @param grain the number of indices; zero, for automatic.
+   * @see LoopScheduler#setGrain(int)
+   */
+  public void setGrain(int grain) {
+    _grain = grain;
+  }
+
+  /**
+   * Returns statistics for stages of parallel loops in the most recent run.
+   * @return list of statistics; empty, if none.
+   */
+  public List<LoopScheduler.Stats> getStageStats() {
+    return _stages;
+  }
+
+  /**
+   * Picks boundaries for all sections in a manifest.
+   * @param manifest the manifest file name.
+   * @param stats writer for comma-separated times; null, for none.
+   * @return the number of sections that failed.
+   */
+  public int run(String manifest, PrintWriter stats) {
+    ArrayList<String[]> lines = readManifest(manifest);
+    int ns = lines.size();
+    int mb = (int)min(Integer.MAX_VALUE,max(1L,_maxBytes>>20));
+    final Semaphore budget = new Semaphore(mb,true);
+    ExecutorService pool = Executors.newFixedThreadPool(_nthread,
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r,"BatchPicker2-worker");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    final LoopScheduler scheduler = new LoopScheduler(pool,_nthread);
+    scheduler.setGrain(_grain);
+    ArrayList<Future<String>> futures = new ArrayList<Future<String>>();
+    for (final String[] line:lines) {
+      futures.add(pool.submit(new Callable<String>() {
+        public String call() {
+          return pick(line,budget,scheduler);
+        }
+      }));
+    }
+    if (stats!=null) {
+      stats.println("section,n1,n2,points,"+
+        "wait_ms,read_ms,preprocess_ms,refine_ms,write_ms,status");
+    }
+    int nfail = 0;
+    for (int is=0; is<ns; ++is) {
+      String s;
+      try {
+        s = futures.get(is).get();
+      } catch (Exception e) {
+        s = lines.get(is)[0]+",,,,,,,,,failed: "+e;
+      }
+      if (!s.endsWith(",ok")) ++nfail;
+      if (stats!=null) {
+        stats.println(s);
+        stats.flush();
+      }
+    }
+    pool.shutdown();
+    _stages = scheduler.getStats();
+    return nfail;
+  }
+
+  /**
+   * Runs a batch from the command line. Usage:
+   * <pre>
+   *   sbp.BatchPicker2 [-threads n] [-memory mb] [-stats file]
+   *     [-grain g] [-stages file] [-r r] [-d d] [-w w] [-a a] [-sigma sigma]
+   *     [-closed] [-gmin gmin] [-prune]
+   *     [-segment length [-overlap overlap]] manifest
+   * </pre>
+   * Times are written to standard output unless a stats file is given.
+   * Statistics for stages of parallel loops are written, as 
+   * comma-separated values, to a stages file if given.
+   * Segments, if any, overlap by half their length unless specified.
+   * The exit status is the number of sections that failed, at most 255.
+   * @param args command-line arguments.
+   */
+  public static void main(String[] args) {
+    BatchPicker2 bp = new BatchPicker2();
+    String manifest = null;
+    String statsFile = null;
+    String stagesFile = null;
+    int r = bp._r, w = bp._w;
+    float d = bp._d, a = bp._a;
+    int segment = 0, overlap = -1;
+    try {
+      for (int i=0; i<args.length; ++i) {
+        String arg = args[i];
+        if (arg.equals("-threads"))     bp.setThreads(parseInt(args[++i]));
+        else if (arg.equals("-memory"))
+          bp.setMemoryBudget(Long.parseLong(args[++i])<<20);
+        else if (arg.equals("-stats"))  statsFile = args[++i];
+        else if (arg.equals("-grain"))  bp.setGrain(parseInt(args[++i]));
+        else if (arg.equals("-stages")) stagesFile = args[++i];
+        else if (arg.equals("-r"))      r = parseInt(args[++i]);
+        else if (arg.equals("-d"))      d = Float.parseFloat(args[++i]);
+        else if (arg.equals("-w"))      w = parseInt(args[++i]);
+        else if (arg.equals("-a"))      a = Float.parseFloat(args[++i]);
+        else if (arg.equals("-sigma"))
+          bp.setGainSigma(Float.parseFloat(args[++i]));
+        else if (arg.equals("-closed"))  bp.setClosed(true);
+        else if (arg.equals("-gmin"))
+          bp.setAdaptiveGate(parseInt(args[++i]));
+        else if (arg.equals("-prune"))   bp.setPruning(true);
+        else if (arg.equals("-segment")) segment = parseInt(args[++i]);
+        else if (arg.equals("-overlap")) overlap = parseInt(args[++i]);
+        else if (arg.startsWith("-"))
+          throw new IllegalArgumentException("unknown option "+arg);
+        else manifest = arg;
+      }
+      if (manifest==null)
+        throw new IllegalArgumentException("no manifest");
+    } catch (RuntimeException e) {
+      System.err.println(e.getMessage());
+      System.err.println(
+        "usage: sbp.BatchPicker2 [-threads n] [-memory mb] [-stats file]"+
+        " [-grain g] [-stages file] [-r r] [-d d] [-w w] [-a a] [-sigma sigma]"+
+        " [-closed] [-gmin gmin] [-prune]"+
+        " [-segment length [-overlap overlap]]"+
+        " manifest");
+      System.exit(255);
+    }
+    bp.setRefineParameters(r,d,w,a);
+    bp.setSegments(segment,(overlap>=0)?overlap:segment/2);
+    try {
+      PrintWriter stats = (statsFile!=null) ?
+        new PrintWriter(new FileWriter(statsFile)) :
+        new PrintWriter(new OutputStreamWriter(System.out));
+      int nfail = bp.run(manifest,stats);
+      stats.close();
+      if (stagesFile!=null)
+        writeStages(bp.getStageStats(),stagesFile);
+      System.exit(min(nfail,255));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private int _nthread;
+  private long _maxBytes;
+  private int _r = 60, _w = 10;
+  private float _d = 1f, _a = 2f;
+  private float _sigma = 50f;
+  private boolean _closed;
+  private int _gmin;
+  private boolean _prune;
+  private int _segment,_overlap;
+  private int _grain;
+  private List<LoopScheduler.Stats> _stages = 
+    new ArrayList<LoopScheduler.Stats>();
+
+  private static int parseInt(String s) {
+    return Integer.parseInt(s);
+  }
+
+  private static void writeStages(
+    List<LoopScheduler.Stats> stages, String fileName) throws IOException
+  {
+    PrintWriter pw = new PrintWriter(new FileWriter(fileName));
+    pw.println("stage,loops,tasks,helpers,queue_ms,task_ms,elapsed_ms,"+
+      "utilization");
+    for (LoopScheduler.Stats s:stages) {
+      pw.println(String.format(Locale.US,"%s,%d,%d,%d,%.1f,%.1f,%.1f,%.3f",
+        s.getStage(),s.getLoops(),s.getTasks(),s.getHelpers(),
+        s.getQueueTime(),s.getTaskTime(),s.getElapsedTime(),
+        s.getUtilization()));
+    }
+    pw.close();
+  }
+
+  private static ArrayList<String[]> readManifest(String fileName) {
+    ArrayList<String[]> lines = new ArrayList<String[]>();
+    try {
+      BufferedReader br = new BufferedReader(new FileReader(fileName));
+      try {
+        for (String s=br.readLine(); s!=null; s=br.readLine()) {
+          s = s.trim();
+          if (s.isEmpty() || s.startsWith("#")) continue;
+          String[] fields = s.split("\\s+");
+          if (fields.length<10 || fields.length%2!=0)
+            throw new IOException("bad manifest line: "+s);
+          lines.add(fields);
+        }
+      } finally {
+        br.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return lines;
+  }
+
+  // Picks the boundary for one section and returns a line of stats.
+  private String pick(
+    String[] line, Semaphore budget, LoopScheduler scheduler)
+  {
+    String image = line[0];
+    int n1 = parseInt(line[1]);
+    int n2 = parseInt(line[2]);
+    String output = line[3];
+    int nc = (line.length-4)/2;
+    float[] c1 = new float[nc+1];
+    float[] c2 = new float[nc+1];
+    for (int ic=0; ic<nc; ++ic) {
+      c1[ic] = Float.parseFloat(line[4+2*ic]);
+      c2[ic] = Float.parseFloat(line[5+2*ic]);
+    }
+    c1[nc] = c1[0]; // closed polygon
+    c2[nc] = c2[0];
+    boolean segy = image.endsWith(".sgy") || image.endsWith(".segy");
+    SegyReader sr = null;
+    long t0 = System.nanoTime();
+    int np = 0;
+    long[] ts = new long[5];
+    String status = "ok";
+    int permits = 0;
+    try {
+      if (segy) {
+        sr = new SegyReader(image);
+        sr.setScheduler(scheduler);
+        n1 = sr.getN1();
+        n2 = sr.getN2();
+      }
+      int need = permits(n1,n2,c1,c2);
+      budget.acquire(need);
+      permits = need; // released only if acquired
+      long t1 = System.nanoTime();
+      ts[0] = t1-t0;
+      float[][] fx = segy ? sr.readSection() : readImage(n1,n2,image);
+      long t2 = System.nanoTime();
+      ts[1] = t2-t1;
+      SaltPicker2 sp = new SaltPicker2();
+      sp.setScheduler(scheduler);
+      float[][] env = sp.applyForInsAmp(_sigma,fx,null);
+      fx = null;
+      long t3 = System.nanoTime();
+      ts[2] = t3-t2;
+      sp.initialBoundary(1,c1,c2);
+      sp.setClosed(_closed);
+      sp.setAdaptiveGate(_gmin);
+      sp.setPruning(_prune);
+      sp.setSegments(_segment,_overlap);
+      sp.refine(_r,_d,_w,_a,env);
+      env = null;
+      long t4 = System.nanoTime();
+      ts[3] = t4-t3;
+      float[][] xs = sp.getBoundary();
+      float[][] us = sp.getNormals();
+      np = xs[0].length;
+      BoundaryFile bf = new BoundaryFile();
+      bf.add(new float[][]{xs[0],xs[1],us[0],us[1]},sp.getParameters());
+      bf.write(output,true);
+      ts[4] = System.nanoTime()-t4;
+    } catch (Throwable e) {
+      status = "failed: "+String.valueOf(e).replace(',',';');
+    } finally {
+      budget.release(permits);
+      if (sr!=null) {
+        try {
+          sr.close();
+        } catch (IOException e) {
+          // nothing was written
+        }
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(image).append(',').append(n1).append(',').append(n2);
+    sb.append(',').append(np);
+    for (long t:ts)
+      sb.append(String.format(Locale.US,",%.1f",t*1.0e-6));
+    sb.append(',').append(status);
+    return sb.toString();
+  }
+
+  // Estimates megabytes required for a section: two images for the image
+  // and its envelope, one for temporary arrays, and five arrays for the
+  // band around the boundary.
+  private int permits(
+    int n1, int n2, float[] c1, float[] c2)
+  {
+    double length = 0.0;
+    for (int ic=1; ic<c1.length; ++ic) {
+      double d1 = c1[ic]-c1[ic-1];
+      double d2 = c2[ic]-c2[ic-1];
+      length += Math.sqrt(d1*d1+d2*d2);
+    }
+    double bytes = 3.0*4.0*n1*n2+5.0*4.0*(length+1.0)*(2*_r+1);
+    int mb = (int)Math.ceil(bytes/(1<<20));
+    int all = (int)min(Integer.MAX_VALUE,max(1L,_maxBytes>>20));
+    return max(1,min(mb,all));
+  }
+
+  static float[][] readImage(int n1, int n2, String fileName)
+    throws IOException
+  {
+    ArrayInputStream ais = new ArrayInputStream(fileName);
+    try {
+      float[][] x = new float[n2][n1];
+      ais.readFloats(x);
+      return x;
+    } finally {
+      ais.close();
+    }
+  }
+}
@@ -0,0 +1,289 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.*;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * A versioned container of many salt boundaries, read and written in bulk.
+ * <p>
+ * Each boundary has coordinates x1 and x2, and optionally normal vectors
+ * u1 and u2 and the parameters {r,d,w,a} with which it was refined. A
+ * file begins with a header of big-endian ints: a magic number, the
+ * version, flags, the number of boundaries, and the number of payload
+ * bytes. The payload has, for each boundary, an int key, the number of
+ * points, and flags, followed by any parameters and then the arrays of
+ * floats. The payload is optionally compressed with deflate. Arrays are
+ * transferred with bulk float buffer operations over a file channel.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class BoundaryFile {
+
+  /** The version of files written. */
+  public static final int VERSION = 1;
+
+  /**
+   * Adds a boundary with key equal to its index.
+   * @param xus array {x1,x2} or {x1,x2,u1,u2} of boundary points and
+   *  normal vectors; referenced, not copied.
+   * @param params array {r,d,w,a} of refine parameters; null, for none.
+   * @return the index of the boundary.
+   */
+  public int add(float[][] xus, float[] params) {
+    return add(_xus.size(),xus,params);
+  }
+
+  /**
+   * Adds a boundary with a specified key, such as a slice index.
+   * @param key the key.
+   * @param xus array {x1,x2} or {x1,x2,u1,u2} of boundary points and
+   *  normal vectors; referenced, not copied.
+   * @param params array {r,d,w,a} of refine parameters; null, for none.
+   * @return the index of the boundary.
+   */
+  public int add(int key, float[][] xus, float[] params) {
+    if (xus.length!=2 && xus.length!=4)
+      throw new IllegalArgumentException("xus must have 2 or 4 arrays");
+    if (params!=null && params.length!=4)
+      throw new IllegalArgumentException("params must be {r,d,w,a}");
+    _keys.add(key);
+    _xus.add(xus);
+    _params.add(params);
+    return _xus.size()-1;
+  }
+
+  /**
+   * Returns the number of boundaries.
+   * @return the number of boundaries.
+   */
+  public int count() {
+    return _xus.size();
+  }
+
+  /**
+   * Returns the key of a boundary.
+   * @param ib the boundary index.
+   * @return the key.
+   */
+  public int getKey(int ib) {
+    return _keys.get(ib);
+  }
+
+  /**
+   * Returns a boundary.
+   * @param ib the boundary index.
+   * @return array {x1,x2} or {x1,x2,u1,u2}; by reference, not copied.
+   */
+  public float[][] getBoundary(int ib) {
+    return _xus.get(ib);
+  }
+
+  /**
+   * Returns the refine parameters of a boundary.
+   * @param ib the boundary index.
+   * @return array {r,d,w,a}; null, if none.
+   */
+  public float[] getParameters(int ib) {
+    return _params.get(ib);
+  }
+
+  /**
+   * Determines whether a file begins with the magic number of this format.
+   * @param fileName the file name.
+   * @return true, if a boundary container; false, otherwise.
+   */
+  public static boolean isBoundaryFile(String fileName) {
+    try {
+      RandomAccessFile raf = new RandomAccessFile(fileName,"r");
+      try {
+        return raf.length()>=HEADER_BYTES && raf.readInt()==MAGIC;
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Writes all boundaries to a file.
+   * @param fileName the file name.
+   * @param compress true, to compress the payload; false, otherwise.
+   */
+  public void write(String fileName, boolean compress) {
+    ByteBuffer pb = ByteBuffer.allocate(payloadBytes());
+    int nb = _xus.size();
+    for (int ib=0; ib<nb; ++ib) {
+      float[][] xus = _xus.get(ib);
+      float[] params = _params.get(ib);
+      int np = xus[0].length;
+      int flags = (xus.length==4?NORMALS:0)|(params!=null?PARAMETERS:0);
+      pb.putInt(_keys.get(ib)).putInt(np).putInt(flags);
+      FloatBuffer fb = pb.asFloatBuffer();
+      if (params!=null)
+        fb.put(params);
+      for (float[] x:xus)
+        fb.put(x,0,np);
+      pb.position(pb.position()+4*fb.position());
+    }
+    pb.flip();
+    int nbyte = pb.remaining();
+    if (compress)
+      pb = deflate(pb);
+    ByteBuffer hb = ByteBuffer.allocate(HEADER_BYTES);
+    hb.putInt(MAGIC).putInt(VERSION).putInt(compress?COMPRESSED:0);
+    hb.putInt(nb).putInt(nbyte);
+    hb.flip();
+    try {
+      FileOutputStream fos = new FileOutputStream(fileName);
+      try {
+        FileChannel fc = fos.getChannel();
+        fc.write(new ByteBuffer[]{hb,pb});
+        while (pb.hasRemaining())
+          fc.write(pb);
+      } finally {
+        fos.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads boundaries from a file.
+   * @param fileName the file name.
+   * @return the boundaries.
+   */
+  public static BoundaryFile read(String fileName) {
+    ByteBuffer hb = ByteBuffer.allocate(HEADER_BYTES);
+    ByteBuffer pb;
+    int nb;
+    try {
+      FileInputStream fis = new FileInputStream(fileName);
+      try {
+        FileChannel fc = fis.getChannel();
+        readFully(fc,hb);
+        hb.flip();
+        if (hb.getInt()!=MAGIC)
+          throw new IOException(fileName+" is not a boundary file");
+        int version = hb.getInt();
+        if (version>VERSION)
+          throw new IOException("unsupported version "+version);
+        int flags = hb.getInt();
+        nb = hb.getInt();
+        int nbyte = hb.getInt();
+        pb = ByteBuffer.allocate((int)(fc.size()-HEADER_BYTES));
+        readFully(fc,pb);
+        pb.flip();
+        if ((flags&COMPRESSED)!=0)
+          pb = inflate(pb,nbyte);
+      } finally {
+        fis.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    BoundaryFile bf = new BoundaryFile();
+    for (int ib=0; ib<nb; ++ib) {
+      int key = pb.getInt();
+      int np = pb.getInt();
+      int flags = pb.getInt();
+      FloatBuffer fb = pb.asFloatBuffer();
+      float[] params = null;
+      if ((flags&PARAMETERS)!=0) {
+        params = new float[4];
+        fb.get(params);
+      }
+      float[][] xus = new float[(flags&NORMALS)!=0?4:2][np];
+      for (float[] x:xus)
+        fb.get(x);
+      pb.position(pb.position()+4*fb.position());
+      bf.add(key,xus,params);
+    }
+    return bf;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int MAGIC = 0x53425042; // "SBPB"
+  private static final int HEADER_BYTES = 20;
+  private static final int COMPRESSED = 1; // file flag
+  private static final int NORMALS = 1; // boundary flags
+  private static final int PARAMETERS = 2;
+
+  private ArrayList<Integer> _keys = new ArrayList<Integer>();
+  private ArrayList<float[][]> _xus = new ArrayList<float[][]>();
+  private ArrayList<float[]> _params = new ArrayList<float[]>();
+
+  private int payloadBytes() {
+    long nbyte = 0;
+    int nb = _xus.size();
+    for (int ib=0; ib<nb; ++ib) {
+      float[][] xus = _xus.get(ib);
+      nbyte += 12+4L*xus.length*xus[0].length;
+      if (_params.get(ib)!=null)
+        nbyte += 16;
+    }
+    if (nbyte>Integer.MAX_VALUE)
+      throw new IllegalStateException("too many boundary points for a file");
+    return (int)nbyte;
+  }
+
+  private static void readFully(FileChannel fc, ByteBuffer bb)
+    throws IOException
+  {
+    while (bb.hasRemaining()) {
+      if (fc.read(bb)<0)
+        throw new EOFException("unexpected end of boundary file");
+    }
+  }
+
+  private static ByteBuffer deflate(ByteBuffer pb) {
+    Deflater d = new Deflater(Deflater.BEST_SPEED);
+    d.setInput(pb.array(),0,pb.limit());
+    d.finish();
+    byte[] b = new byte[max(64,pb.limit()/2)];
+    int n = 0;
+    while (!d.finished()) {
+      if (n==b.length)
+        b = java.util.Arrays.copyOf(b,2*b.length);
+      n += d.deflate(b,n,b.length-n);
+    }
+    d.end();
+    return ByteBuffer.wrap(b,0,n);
+  }
+
+  private static ByteBuffer inflate(ByteBuffer pb, int nbyte)
+    throws IOException
+  {
+    Inflater i = new Inflater();
+    i.setInput(pb.array(),0,pb.limit());
+    byte[] b = new byte[nbyte];
+    try {
+      int n = 0;
+      while (n<nbyte && !i.finished()) {
+        int m = i.inflate(b,n,nbyte-n);
+        if (m==0 && (i.needsInput() || i.needsDictionary()))
+          throw new EOFException("truncated boundary file");
+        n += m;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      i.end();
+    }
+    return ByteBuffer.wrap(b);
+  }
+}
@@ -0,0 +1,344 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.util.Arrays;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Control points of a 2D salt boundary, kept in the order picked.
+ * <p>
+ * Points are indexed by a uniform grid of square cells, so that points
+ * within a radius, or nearest to a location, are found by searching only
+ * nearby cells. Each point has an integer id that remains valid until
+ * the point is removed. Adding, moving and removing a point take
+ * constant time.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class ControlPoints2 {
+
+  /**
+   * Constructs control points for a section with specified dimensions.
+   * @param n1 number of samples in 1st dimension.
+   * @param n2 number of samples in 2nd dimension.
+   */
+  public ControlPoints2(int n1, int n2) {
+    this(n1,n2,16);
+  }
+
+  /**
+   * Constructs control points for a section with specified dimensions.
+   * @param n1 number of samples in 1st dimension.
+   * @param n2 number of samples in 2nd dimension.
+   * @param size width, in samples, of grid cells.
+   */
+  public ControlPoints2(int n1, int n2, int size) {
+    _size = size;
+    _m1 = max(1,(n1+size-1)/size);
+    _m2 = max(1,(n2+size-1)/size);
+    _cells = new int[_m1*_m2][];
+    _counts = new int[_m1*_m2];
+    clear();
+  }
+
+  /**
+   * Returns the number of points.
+   * @return the number of points.
+   */
+  public int size() {
+    return _np;
+  }
+
+  /**
+   * Determines whether there are no points.
+   * @return true, if no points; false, otherwise.
+   */
+  public boolean isEmpty() {
+    return _np==0;
+  }
+
+  /**
+   * Removes all points.
+   */
+  public void clear() {
+    _np = 0;
+    _nid = 0;
+    _head = _tail = _free = -1;
+    zero(_counts);
+    _cache = null;
+  }
+
+  /**
+   * Adds a point after the last point.
+   * @param x1 coordinate in 1st dimension.
+   * @param x2 coordinate in 2nd dimension.
+   * @return the id of the point.
+   */
+  public int add(float x1, float x2) {
+    int id = newId();
+    _x1[id] = x1;
+    _x2[id] = x2;
+    _prev[id] = _tail;
+    _next[id] = -1;
+    if (_tail>=0) _next[_tail] = id;
+    else          _head = id;
+    _tail = id;
+    insert(id);
+    ++_np;
+    _cache = null;
+    return id;
+  }
+
+  /**
+   * Inserts a point after a specified point. If the point inserted is the
+   * first since a point was removed, its id is that of the point removed.
+   * @param prev the id of the previous point; -1, to insert first.
+   * @param x1 coordinate in 1st dimension.
+   * @param x2 coordinate in 2nd dimension.
+   * @return the id of the point.
+   */
+  public int insert(int prev, float x1, float x2) {
+    if (prev==_tail)
+      return add(x1,x2);
+    int id = newId();
+    int next = (prev>=0)?_next[prev]:_head;
+    _x1[id] = x1;
+    _x2[id] = x2;
+    _prev[id] = prev;
+    _next[id] = next;
+    if (prev>=0) _next[prev] = id;
+    else         _head = id;
+    _prev[next] = id;
+    insert(id);
+    ++_np;
+    _cache = null;
+    return id;
+  }
+
+  /**
+   * Returns the id of the point before a specified point.
+   * @param id the id of the point.
+   * @return the id of the previous point; -1, if the first point.
+   */
+  public int getPrevious(int id) {
+    return _prev[id];
+  }
+
+  /**
+   * Moves a point, without changing its order.
+   * @param id the id of the point.
+   * @param x1 new coordinate in 1st dimension.
+   * @param x2 new coordinate in 2nd dimension.
+   */
+  public void move(int id, float x1, float x2) {
+    delete(id);
+    _x1[id] = x1;
+    _x2[id] = x2;
+    insert(id);
+    _cache = null;
+  }
+
+  /**
+   * Removes a point.
+   * @param id the id of the point.
+   */
+  public void remove(int id) {
+    delete(id);
+    int ip = _prev[id];
+    int in = _next[id];
+    if (ip>=0) _next[ip] = in;
+    else       _head = in;
+    if (in>=0) _prev[in] = ip;
+    else       _tail = ip;
+    _next[id] = _free;
+    _free = id;
+    --_np;
+    _cache = null;
+  }
+
+  /**
+   * Returns the coordinate in 1st dimension of a point.
+   * @param id the id of the point.
+   * @return the coordinate.
+   */
+  public float getX1(int id) {
+    return _x1[id];
+  }
+
+  /**
+   * Returns the coordinate in 2nd dimension of a point.
+   * @param id the id of the point.
+   * @return the coordinate.
+   */
+  public float getX2(int id) {
+    return _x2[id];
+  }
+
+  /**
+   * Returns ids of all points within a specified distance of a location.
+   * @param x1 location in 1st dimension.
+   * @param x2 location in 2nd dimension.
+   * @param r the distance.
+   * @return array of point ids; empty, if no points are found.
+   */
+  public int[] findWithin(float x1, float x2, float r) {
+    int[] ids = new int[8];
+    int n = 0;
+    float rr = r*r;
+    int k1b = cell1(x1-r), k1e = cell1(x1+r);
+    int k2b = cell2(x2-r), k2e = cell2(x2+r);
+    for (int k2=k2b; k2<=k2e; ++k2) {
+      for (int k1=k1b; k1<=k1e; ++k1) {
+        int kc = k1+k2*_m1;
+        int[] cell = _cells[kc];
+        for (int ic=0; ic<_counts[kc]; ++ic) {
+          int id = cell[ic];
+          float d1 = _x1[id]-x1;
+          float d2 = _x2[id]-x2;
+          if (d1*d1+d2*d2<=rr) {
+            if (n==ids.length) ids = Arrays.copyOf(ids,2*n);
+            ids[n++] = id;
+          }
+        }
+      }
+    }
+    return copy(n,ids);
+  }
+
+  /**
+   * Returns the id of the point nearest to a location.
+   * @param x1 location in 1st dimension.
+   * @param x2 location in 2nd dimension.
+   * @param rmax maximum distance to the point.
+   * @return the id of the nearest point; -1, if none within rmax.
+   */
+  public int findNearest(float x1, float x2, float rmax) {
+    int k1 = cell1(x1);
+    int k2 = cell2(x2);
+    int jd = -1;
+    float dd = rmax*rmax;
+    // Search rings of cells until no closer point can be found.
+    int kmax = max(_m1,_m2);
+    for (int k=0; k<=kmax; ++k) {
+      float rk = (k-1)*_size;
+      if (k>0 && (rk>rmax || (jd>=0 && rk*rk>dd))) break;
+      for (int j2=k2-k; j2<=k2+k; ++j2) {
+        if (j2<0 || j2>=_m2) continue;
+        boolean edge = j2==k2-k || j2==k2+k;
+        for (int j1=k1-k; j1<=k1+k; j1+=(edge||k==0)?1:2*k) {
+          if (j1<0 || j1>=_m1) continue;
+          int kc = j1+j2*_m1;
+          int[] cell = _cells[kc];
+          for (int ic=0; ic<_counts[kc]; ++ic) {
+            int id = cell[ic];
+            float d1 = _x1[id]-x1;
+            float d2 = _x2[id]-x2;
+            float di = d1*d1+d2*d2;
+            if (di<=dd) {
+              dd = di;
+              jd = id;
+            }
+          }
+        }
+      }
+    }
+    return jd;
+  }
+
+  /**
+   * Returns coordinates of all points, in the order picked.
+   * The returned arrays must not be modified.
+   * @return array {x1s,x2s} of point coordinates.
+   */
+  public float[][] getPoints() {
+    if (_cache==null) {
+      float[] p1s = new float[_np];
+      float[] p2s = new float[_np];
+      int ip = 0;
+      for (int id=_head; id>=0; id=_next[id]) {
+        p1s[ip] = _x1[id];
+        p2s[ip] = _x2[id];
+        ++ip;
+      }
+      _cache = new float[][]{p1s,p2s};
+    }
+    return _cache;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private int _size; // width of grid cells
+  private int _m1,_m2; // numbers of grid cells
+  private int[][] _cells; // ids of points in each cell
+  private int[] _counts; // numbers of points in each cell
+  private int _np; // number of points
+  private int _nid; // number of ids ever used
+  private int _head,_tail; // ids of first and last points
+  private int _free; // first id in list of free ids
+  private float[] _x1 = new float[16]; // coordinates of points
+  private float[] _x2 = new float[16];
+  private int[] _prev = new int[16]; // ids of previous points
+  private int[] _next = new int[16]; // ids of next points, or free ids
+  private int[] _cell = new int[16]; // index of cell with each point
+  private int[] _slot = new int[16]; // index of point in its cell
+  private float[][] _cache; // coordinates in order, if not changed
+
+  private int cell1(float x1) {
+    return min(_m1-1,max(0,(int)floor(x1/_size)));
+  }
+
+  private int cell2(float x2) {
+    return min(_m2-1,max(0,(int)floor(x2/_size)));
+  }
+
+  private int newId() {
+    if (_free>=0) {
+      int id = _free;
+      _free = _next[id];
+      return id;
+    }
+    if (_nid==_x1.length) {
+      int n = 2*_nid;
+      _x1 = Arrays.copyOf(_x1,n);
+      _x2 = Arrays.copyOf(_x2,n);
+      _prev = Arrays.copyOf(_prev,n);
+      _next = Arrays.copyOf(_next,n);
+      _cell = Arrays.copyOf(_cell,n);
+      _slot = Arrays.copyOf(_slot,n);
+    }
+    return _nid++;
+  }
+
+  // Puts a point into the cell containing it.
+  private void insert(int id) {
+    int kc = cell1(_x1[id])+cell2(_x2[id])*_m1;
+    int nc = _counts[kc];
+    int[] cell = _cells[kc];
+    if (cell==null)
+      cell = _cells[kc] = new int[4];
+    else if (nc==cell.length)
+      cell = _cells[kc] = Arrays.copyOf(cell,2*nc);
+    cell[nc] = id;
+    _cell[id] = kc;
+    _slot[id] = nc;
+    _counts[kc] = nc+1;
+  }
+
+  // Takes a point out of its cell, replacing it with the last point there.
+  private void delete(int id) {
+    int kc = _cell[id];
+    int ic = _slot[id];
+    int nc = --_counts[kc];
+    int[] cell = _cells[kc];
+    int jd = cell[nc];
+    cell[ic] = jd;
+    _slot[jd] = ic;
+  }
+}
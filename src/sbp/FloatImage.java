@@ -0,0 +1,332 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.nio.*;
+
+/**
+ * A 2D section or 3D volume of floats in contiguous storage.
+ * <p>
+ * Samples are stored trace by trace, with n1 samples per trace and n2
+ * traces per slice, in the order of an array[n3][n2][n1]. Traces are
+ * packed contiguously into chunks of at most 2^28 floats, either arrays
+ * on the heap or direct buffers outside the heap, so that an image may
+ * have more than 2^31 samples. Each trace lies within one chunk.
+ * <p>
+ * Traces and slices are available as views that share storage with the
+ * image, without copying. Different threads may read and write different
+ * traces at the same time.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class FloatImage {
+
+  /**
+   * Constructs a 2D section with storage on the heap.
+   * @param n1 number of samples per trace.
+   * @param n2 number of traces.
+   */
+  public FloatImage(int n1, int n2) {
+    this(n1,n2,1,false);
+  }
+
+  /**
+   * Constructs a 3D volume with storage on the heap.
+   * @param n1 number of samples per trace.
+   * @param n2 number of traces per slice.
+   * @param n3 number of slices.
+   */
+  public FloatImage(int n1, int n2, int n3) {
+    this(n1,n2,n3,false);
+  }
+
+  /**
+   * Constructs a 3D volume. All samples are initially zero.
+   * @param n1 number of samples per trace.
+   * @param n2 number of traces per slice.
+   * @param n3 number of slices.
+   * @param direct true, for direct buffers outside the heap; false, for
+   *  arrays on the heap.
+   */
+  public FloatImage(int n1, int n2, int n3, boolean direct) {
+    this(n1,n2,n3,direct,CHUNK_FLOATS);
+  }
+
+  /**
+   * Constructs a 2D section with a copy of the specified samples.
+   * @param x array[n2][n1] of samples.
+   */
+  public FloatImage(float[][] x) {
+    this(x[0].length,x.length);
+    for (int i2=0; i2<_n2; ++i2)
+      setTrace(i2,0,x[i2]);
+  }
+
+  /**
+   * Constructs a 3D volume with a copy of the specified samples.
+   * @param x array[n3][n2][n1] of samples.
+   */
+  public FloatImage(float[][][] x) {
+    this(x[0][0].length,x[0].length,x.length);
+    for (int i3=0; i3<_n3; ++i3)
+      for (int i2=0; i2<_n2; ++i2)
+        setTrace(i2,i3,x[i3][i2]);
+  }
+
+  /**
+   * Returns the number of samples per trace.
+   * @return the number of samples.
+   */
+  public int getN1() {
+    return _n1;
+  }
+
+  /**
+   * Returns the number of traces per slice.
+   * @return the number of traces.
+   */
+  public int getN2() {
+    return _n2;
+  }
+
+  /**
+   * Returns the number of slices; 1, for a 2D section.
+   * @return the number of slices.
+   */
+  public int getN3() {
+    return _n3;
+  }
+
+  /**
+   * Returns the total number of samples.
+   * @return the number of samples.
+   */
+  public long getSampleCount() {
+    return (long)_n1*_n2*_n3;
+  }
+
+  /**
+   * Determines whether samples are stored in direct buffers.
+   * @return true, if direct; false, if on the heap.
+   */
+  public boolean isDirect() {
+    return _chunks[0].isDirect();
+  }
+
+  /**
+   * Returns a sample of a 2D section, or of the first slice.
+   * @param i1 sample index.
+   * @param i2 trace index.
+   * @return the sample.
+   */
+  public float get(int i1, int i2) {
+    return get(i1,i2,0);
+  }
+
+  /**
+   * Returns a sample.
+   * @param i1 sample index.
+   * @param i2 trace index.
+   * @param i3 slice index.
+   * @return the sample.
+   */
+  public float get(int i1, int i2, int i3) {
+    long t = trace(i1,i2,i3);
+    return _chunks[(int)(t/_tpc)].get((int)(t%_tpc)*_n1+i1);
+  }
+
+  /**
+   * Sets a sample of a 2D section, or of the first slice.
+   * @param i1 sample index.
+   * @param i2 trace index.
+   * @param v the sample value.
+   */
+  public void set(int i1, int i2, float v) {
+    set(i1,i2,0,v);
+  }
+
+  /**
+   * Sets a sample.
+   * @param i1 sample index.
+   * @param i2 trace index.
+   * @param i3 slice index.
+   * @param v the sample value.
+   */
+  public void set(int i1, int i2, int i3, float v) {
+    long t = trace(i1,i2,i3);
+    _chunks[(int)(t/_tpc)].put((int)(t%_tpc)*_n1+i1,v);
+  }
+
+  /**
+   * Returns a view of one trace, which shares storage with this image.
+   * @param i2 trace index.
+   * @param i3 slice index.
+   * @return buffer of n1 samples, with position zero.
+   */
+  public FloatBuffer getTrace(int i2, int i3) {
+    long t = trace(i2,i3);
+    FloatBuffer b = _chunks[(int)(t/_tpc)].duplicate();
+    int k = (int)(t%_tpc)*_n1;
+    b.limit(k+_n1);
+    b.position(k);
+    return b.slice();
+  }
+
+  /**
+   * Copies one trace into an array.
+   * @param i2 trace index.
+   * @param i3 slice index.
+   * @param x array[n1] for the samples.
+   */
+  public void getTrace(int i2, int i3, float[] x) {
+    long t = trace(i2,i3);
+    FloatBuffer b = _chunks[(int)(t/_tpc)];
+    int k = (int)(t%_tpc)*_n1;
+    if (b.hasArray()) {
+      System.arraycopy(b.array(),b.arrayOffset()+k,x,0,_n1);
+    } else {
+      b = b.duplicate();
+      b.position(k);
+      b.get(x,0,_n1);
+    }
+  }
+
+  /**
+   * Copies one trace from an array.
+   * @param i2 trace index.
+   * @param i3 slice index.
+   * @param x array[n1] of samples.
+   */
+  public void setTrace(int i2, int i3, float[] x) {
+    long t = trace(i2,i3);
+    FloatBuffer b = _chunks[(int)(t/_tpc)];
+    int k = (int)(t%_tpc)*_n1;
+    if (b.hasArray()) {
+      System.arraycopy(x,0,b.array(),b.arrayOffset()+k,_n1);
+    } else {
+      b = b.duplicate();
+      b.position(k);
+      b.put(x,0,_n1);
+    }
+  }
+
+  /**
+   * Returns a view of one slice, which shares storage with this image.
+   * @param i3 slice index.
+   * @return the slice, a 2D section.
+   */
+  public FloatImage getSlice(int i3) {
+    return new FloatImage(this,trace(0,i3));
+  }
+
+  /**
+   * Returns a copy of a rectangular region of a 2D section, or of the
+   * first slice.
+   * @param j1 index of first sample in 1st dimension.
+   * @param j2 index of first sample in 2nd dimension.
+   * @param m1 number of samples in 1st dimension.
+   * @param m2 number of samples in 2nd dimension.
+   * @return array[m2][m1] of samples.
+   */
+  public float[][] readRegion(int j1, int j2, int m1, int m2) {
+    float[][] x = new float[m2][m1];
+    float[] t = (j1==0 && m1==_n1) ? null : new float[_n1];
+    for (int i2=0; i2<m2; ++i2) {
+      if (t==null) {
+        getTrace(j2+i2,0,x[i2]);
+      } else {
+        getTrace(j2+i2,0,t);
+        System.arraycopy(t,j1,x[i2],0,m1);
+      }
+    }
+    return x;
+  }
+
+  /**
+   * Returns a copy of a 2D section, or of the first slice.
+   * @return array[n2][n1] of samples.
+   */
+  public float[][] toArray2() {
+    return readRegion(0,0,_n1,_n2);
+  }
+
+  /**
+   * Returns a copy of all samples.
+   * @return array[n3][n2][n1] of samples.
+   */
+  public float[][][] toArray3() {
+    float[][][] x = new float[_n3][_n2][_n1];
+    for (int i3=0; i3<_n3; ++i3)
+      for (int i2=0; i2<_n2; ++i2)
+        getTrace(i2,i3,x[i3][i2]);
+    return x;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // package
+
+  /**
+   * Constructs an image with chunks of at most the specified number of
+   * floats, each with at least one trace.
+   */
+  FloatImage(int n1, int n2, int n3, boolean direct, int chunkFloats) {
+    if (n1<1 || n2<1 || n3<1)
+      throw new IllegalArgumentException("dimensions must be positive");
+    if (direct && 4L*n1>Integer.MAX_VALUE)
+      throw new IllegalArgumentException("trace too long for a buffer");
+    _n1 = n1;
+    _n2 = n2;
+    _n3 = n3;
+    long nt = (long)n2*n3;
+    _tpc = (int)Math.min(nt,Math.max(1,chunkFloats/n1));
+    long nc = (nt+_tpc-1)/_tpc;
+    if (nc>Integer.MAX_VALUE)
+      throw new IllegalArgumentException("too many samples");
+    _chunks = new FloatBuffer[(int)nc];
+    for (int ic=0; ic<nc; ++ic) {
+      int n = (int)Math.min(_tpc,nt-(long)ic*_tpc)*n1;
+      _chunks[ic] = direct ?
+        ByteBuffer.allocateDirect(4*n).order(ByteOrder.nativeOrder())
+                  .asFloatBuffer() :
+        FloatBuffer.wrap(new float[n]);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int CHUNK_FLOATS = 1<<28;
+
+  private int _n1,_n2,_n3;
+  private int _tpc; // number of traces per chunk
+  private long _t0; // index of first trace, for views of slices
+  private FloatBuffer[] _chunks;
+
+  // Constructs a view of one slice of an image.
+  private FloatImage(FloatImage fi, long t0) {
+    _n1 = fi._n1;
+    _n2 = fi._n2;
+    _n3 = 1;
+    _tpc = fi._tpc;
+    _t0 = t0;
+    _chunks = fi._chunks;
+  }
+
+  // Returns the index in the chunks of the trace with a sample.
+  private long trace(int i1, int i2, int i3) {
+    if (i1<0 || i1>=_n1)
+      throw new IndexOutOfBoundsException("sample "+i1);
+    return trace(i2,i3);
+  }
+
+  // Returns the index of a trace in the chunks.
+  private long trace(int i2, int i3) {
+    if (i2<0 || i2>=_n2 || i3<0 || i3>=_n3)
+      throw new IndexOutOfBoundsException("trace ("+i2+","+i3+")");
+    return _t0+i2+(long)i3*_n2;
+  }
+}
@@ -0,0 +1,211 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * A multiresolution pyramid of square tiles for a 2D image.
+ * <p>
+ * Level 0 is the image itself, either in memory or read on demand. Each
+ * sample in level L is the peak, the value with largest magnitude, of
+ * 2^L consecutive samples in one of every 2^L traces of the image.
+ * Reflections, which are thin in the 1st dimension but extend in the
+ * 2nd, therefore remain visible when zoomed out, and a tile in level L
+ * is built by reading only 1/2^L of the traces that it spans. Tiles are
+ * built only when requested, and are kept in a least-recently-used cache
+ * with a bounded number of bytes, so that memory used does not depend on
+ * the size of the image. A pyramid is safe for use by multiple threads.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class ImagePyramid2 {
+
+  /**
+   * Constructs a pyramid for an image with tiles of 256x256 samples.
+   * @param x array[n2][n1] of image samples; referenced, not copied.
+   */
+  public ImagePyramid2(float[][] x) {
+    this(x,256);
+  }
+
+  /**
+   * Constructs a pyramid for an image.
+   * @param x array[n2][n1] of image samples; referenced, not copied.
+   * @param size number of samples on each side of square tiles.
+   */
+  public ImagePyramid2(float[][] x, int size) {
+    this(x[0].length,x.length,size);
+    _x = x;
+  }
+
+  /**
+   * Constructs a pyramid for a section read on demand. The tile size is
+   * that of the section reader in its 1st dimension.
+   * @param sr the section reader.
+   */
+  public ImagePyramid2(SectionReader sr) {
+    this(sr.getN1(),sr.getN2(),sr.getTileN1());
+    _sr = sr;
+  }
+
+  private ImagePyramid2(int n1, int n2, int size) {
+    _size = size;
+    _n1 = n1;
+    _n2 = n2;
+    _nl = 1;
+    for (int n=max(_n1,_n2); n>size; n=(n+1)/2)
+      ++_nl;
+  }
+
+  /**
+   * Sets the maximum number of bytes in cached tiles. The default is
+   * 32 MB.
+   * @param maxBytes the maximum number of bytes.
+   */
+  public void setMaxCacheBytes(long maxBytes) {
+    synchronized(_tiles) {
+      _maxBytes = maxBytes;
+      trim();
+    }
+  }
+
+  /**
+   * Returns the number of levels; the coarsest level has only one tile.
+   * @return the number of levels.
+   */
+  public int countLevels() {
+    return _nl;
+  }
+
+  /**
+   * Returns the number of samples on each side of tiles.
+   * @return the tile size.
+   */
+  public int getTileSize() {
+    return _size;
+  }
+
+  /**
+   * Returns the number of samples in 1st dimension of a level.
+   * @param level the level.
+   * @return the number of samples.
+   */
+  public int getN1(int level) {
+    int n = _n1;
+    for (int il=0; il<level; ++il) n = (n+1)/2;
+    return n;
+  }
+
+  /**
+   * Returns the number of samples in 2nd dimension of a level.
+   * @param level the level.
+   * @return the number of samples.
+   */
+  public int getN2(int level) {
+    int n = _n2;
+    for (int il=0; il<level; ++il) n = (n+1)/2;
+    return n;
+  }
+
+  /**
+   * Returns a tile. Tiles on the last row or column of a level may be
+   * smaller than the tile size. Returned arrays must not be modified.
+   * @param level the level.
+   * @param k1 tile index in 1st dimension.
+   * @param k2 tile index in 2nd dimension.
+   * @return array[m2][m1] of tile samples.
+   */
+  public float[][] getTile(int level, int k1, int k2) {
+    if (level==0)
+      return copyTile(k1,k2);
+    Long key = ((long)level<<56)|((long)k2<<28)|k1;
+    synchronized(_tiles) {
+      float[][] t = _tiles.get(key);
+      if (t!=null) return t;
+    }
+    float[][] t = buildTile(level,k1,k2);
+    synchronized(_tiles) {
+      if (_tiles.put(key,t)==null)
+        _bytes += 4L*t.length*t[0].length;
+      trim();
+    }
+    return t;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private float[][] _x; // the image, if in memory
+  private SectionReader _sr; // or the section reader
+  private int _n1,_n2;
+  private int _size;
+  private int _nl; // number of levels
+  private long _maxBytes = 32L<<20; // maximum bytes in cached tiles
+  private long _bytes; // current bytes in cached tiles
+  private LinkedHashMap<Long,float[][]> _tiles = // for levels > 0
+    new LinkedHashMap<Long,float[][]>(64,0.75f,true);
+
+  private float[][] copyTile(int k1, int k2) {
+    int j1 = k1*_size, j2 = k2*_size;
+    int m1 = min(_size,_n1-j1);
+    int m2 = min(_size,_n2-j2);
+    if (_sr!=null)
+      return _sr.readRegion(j1,j2,m1,m2);
+    float[][] t = new float[m2][m1];
+    for (int i2=0; i2<m2; ++i2)
+      System.arraycopy(_x[j2+i2],j1,t[i2],0,m1);
+    return t;
+  }
+
+  // Evicts least recently used tiles, while cached tiles exceed the
+  // maximum number of bytes. Called while synchronized on tiles.
+  private void trim() {
+    while (_bytes>_maxBytes && !_tiles.isEmpty()) {
+      Map.Entry<Long,float[][]> e = _tiles.entrySet().iterator().next();
+      float[][] te = e.getValue();
+      _bytes -= 4L*te.length*te[0].length;
+      _tiles.remove(e.getKey());
+    }
+  }
+
+  // Builds a tile of a level from one of every 2^level traces.
+  private float[][] buildTile(int level, int k1, int k2) {
+    int s = 1<<level;
+    int n1 = getN1(level), n2 = getN2(level);
+    int m1 = min(_size,n1-k1*_size);
+    int m2 = min(_size,n2-k2*_size);
+    int j1 = k1*_size*s; // first sample in level 0
+    int l1 = min(m1*s,_n1-j1); // number of samples read per trace
+    float[][] t = new float[m2][m1];
+    float[] x = new float[l1];
+    for (int i2=0; i2<m2; ++i2) {
+      int j2 = (k2*_size+i2)*s;
+      if (_sr!=null) {
+        _sr.readTrace(j2,j1,l1,x);
+      } else {
+        System.arraycopy(_x[j2],j1,x,0,l1);
+      }
+      float[] ti = t[i2];
+      for (int i1=0; i1<m1; ++i1) {
+        int ib = i1*s, ie = min(ib+s,l1);
+        float p = x[ib];
+        for (int i=ib+1; i<ie; ++i)
+          p = peak(p,x[i]);
+        ti[i1] = p;
+      }
+    }
+    return t;
+  }
+
+  private static float peak(float a, float b) {
+    return (abs(a)>=abs(b))?a:b;
+  }
+}
@@ -0,0 +1,188 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Live-wire picking of paths in a 2D image.
+ * <p>
+ * For a seed sample, shortest paths from the seed to all other samples
+ * are computed once, with Dijkstra's method on the graph of 8-connected
+ * neighbor samples. The cost of a step between neighbors is the average
+ * of their weights times the step length. A path to any sample is then
+ * traced back through the tree of shortest paths, with cost proportional
+ * only to the length of the path.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class LiveWire2 {
+
+  /**
+   * Returns weights for live-wire picking of salt boundaries. Weights
+   * are small where the envelope is large.
+   * @param env array[n2][n1] of envelope samples.
+   * @return array[n2][n1] of weights.
+   */
+  public static float[][] weightsFromEnvelope(float[][] env) {
+    float emax = max(env);
+    float escale = (emax>0f)?1f/emax:1f;
+    return exp(mul(-escale,env));
+  }
+
+  /**
+   * Constructs a live wire for specified weights.
+   * @param w array[n2][n1] of positive weights.
+   */
+  public LiveWire2(float[][] w) {
+    _n1 = w[0].length;
+    _n2 = w.length;
+    _w = w;
+  }
+
+  /**
+   * Computes shortest paths from a specified seed to all samples.
+   * @param i1 seed index in 1st dimension.
+   * @param i2 seed index in 2nd dimension.
+   */
+  public void setSeed(int i1, int i2) {
+    int n1 = _n1, n2 = _n2, n = n1*n2;
+    if (_parent==null) {
+      _parent = new int[n];
+      _dist = new float[n];
+      _heap = new int[n];
+      _pos = new int[n];
+    }
+    int[] parent = _parent;
+    float[] dist = _dist;
+    int[] pos = _pos;
+    fill(FLT_MAX,dist);
+    fill(-1,parent);
+    fill(-1,pos); // -1: not yet reached; -2: done
+    _nheap = 0;
+    int k0 = i1+i2*n1;
+    _seed = k0;
+    dist[k0] = 0f;
+    push(k0);
+    while (_nheap>0) {
+      int k = pop();
+      pos[k] = -2;
+      int k1 = k%n1, k2 = k/n1;
+      float dk = dist[k];
+      float wk = _w[k2][k1];
+      for (int j2=max(k2-1,0); j2<=min(k2+1,n2-1); ++j2) {
+        float[] w2 = _w[j2];
+        for (int j1=max(k1-1,0); j1<=min(k1+1,n1-1); ++j1) {
+          int j = j1+j2*n1;
+          if (pos[j]==-2) continue;
+          float ds = (j1!=k1 && j2!=k2)?SQRT2:1f;
+          float dj = dk+0.5f*(wk+w2[j1])*ds;
+          if (dj<dist[j]) {
+            dist[j] = dj;
+            parent[j] = k;
+            if (pos[j]<0) push(j);
+            else          up(pos[j]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Determines whether shortest paths have been computed for a seed.
+   * @return true, if a seed has been set; false, otherwise.
+   */
+  public boolean hasSeed() {
+    return _seed>=0;
+  }
+
+  /**
+   * Returns the shortest path from the seed to a specified sample.
+   * @param i1 sample index in 1st dimension.
+   * @param i2 sample index in 2nd dimension.
+   * @return array {x1s,x2s} of path coordinates, starting at the seed.
+   */
+  public float[][] getPath(int i1, int i2) {
+    int k = i1+i2*_n1;
+    int np = 1;
+    for (int j=k; j!=_seed; j=_parent[j])
+      ++np;
+    float[] x1s = new float[np];
+    float[] x2s = new float[np];
+    for (int ip=np-1, j=k; ip>=0; --ip) {
+      x1s[ip] = j%_n1;
+      x2s[ip] = j/_n1;
+      if (ip>0) j = _parent[j];
+    }
+    return new float[][]{x1s,x2s};
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final float SQRT2 = (float)Math.sqrt(2.0);
+
+  private int _n1,_n2;
+  private float[][] _w; // weights
+  private int _seed = -1; // index of seed sample
+  private int[] _parent; // index of previous sample on shortest path
+  private float[] _dist; // cost of shortest path
+  private int[] _heap; // binary min-heap of sample indices, keyed by cost
+  private int[] _pos; // position of each sample in the heap
+  private int _nheap; // number of samples in the heap
+
+  private void push(int k) {
+    int i = _nheap++;
+    _heap[i] = k;
+    _pos[k] = i;
+    up(i);
+  }
+
+  private int pop() {
+    int k = _heap[0];
+    int last = _heap[--_nheap];
+    if (_nheap>0) {
+      _heap[0] = last;
+      _pos[last] = 0;
+      down(0);
+    }
+    return k;
+  }
+
+  private void up(int i) {
+    int k = _heap[i];
+    float dk = _dist[k];
+    while (i>0) {
+      int ip = (i-1)/2;
+      int kp = _heap[ip];
+      if (_dist[kp]<=dk) break;
+      _heap[i] = kp;
+      _pos[kp] = i;
+      i = ip;
+    }
+    _heap[i] = k;
+    _pos[k] = i;
+  }
+
+  private void down(int i) {
+    int k = _heap[i];
+    float dk = _dist[k];
+    int n = _nheap;
+    while (true) {
+      int ic = 2*i+1;
+      if (ic>=n) break;
+      if (ic+1<n && _dist[_heap[ic+1]]<_dist[_heap[ic]]) ++ic;
+      int kc = _heap[ic];
+      if (dk<=_dist[kc]) break;
+      _heap[i] = kc;
+      _pos[kc] = i;
+      i = ic;
+    }
+    _heap[i] = k;
+    _pos[k] = i;
+  }
+}
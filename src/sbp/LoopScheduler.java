@@ -0,0 +1,403 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import edu.mines.jtk.util.Parallel;
+
+/**
+ * Schedules parallel loops over indices for stages of picking, in place
+ * of {@link Parallel}. Tasks are run by an executor, such as the common
+ * fork-join pool, a fixed pool shared with other work, or a new thread
+ * per task, which on newer JDKs may be a virtual thread.
+ * <p>
+ * Each loop is divided into tasks of consecutive indices, the grain. The
+ * thread that calls a loop takes tasks, as do at most parallelism-1
+ * helpers submitted to the executor. A loop therefore completes even if
+ * no helper runs, so that loops may be called from threads of the same
+ * executor, or nested. Helpers that start after all tasks are taken
+ * return at once. Loops in different threads share the executor, which
+ * bounds the number of threads busy with tasks of all loops.
+ * <p>
+ * For each named stage, a scheduler counts loops and tasks, and sums the
+ * times that helpers waited in the queue of the executor, the times spent
+ * in tasks, and the elapsed times of loops.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class LoopScheduler {
+
+  /**
+   * Statistics for one stage. Times are in milliseconds.
+   */
+  public static class Stats {
+
+    /**
+     * Returns the name of the stage.
+     * @return the name.
+     */
+    public String getStage() {
+      return _stage;
+    }
+
+    /**
+     * Returns the number of loops.
+     * @return the number of loops.
+     */
+    public long getLoops() {
+      return _loops;
+    }
+
+    /**
+     * Returns the number of tasks.
+     * @return the number of tasks.
+     */
+    public long getTasks() {
+      return _tasks;
+    }
+
+    /**
+     * Returns the number of helpers that ran.
+     * @return the number of helpers.
+     */
+    public long getHelpers() {
+      return _helpers;
+    }
+
+    /**
+     * Returns the total time that helpers waited to run.
+     * @return the time.
+     */
+    public double getQueueTime() {
+      return _queue*1.0e-6;
+    }
+
+    /**
+     * Returns the total time spent in tasks.
+     * @return the time.
+     */
+    public double getTaskTime() {
+      return _task*1.0e-6;
+    }
+
+    /**
+     * Returns the total elapsed time of loops.
+     * @return the time.
+     */
+    public double getElapsedTime() {
+      return _elapsed*1.0e-6;
+    }
+
+    /**
+     * Returns the utilization, the time spent in tasks divided by the sum
+     * over loops of elapsed time multiplied by the number of threads that
+     * could take tasks, the caller and its helpers.
+     * @return the utilization, between zero and one.
+     */
+    public double getUtilization() {
+      return (_capacity>0)?(double)_task/_capacity:0.0;
+    }
+
+    private String _stage;
+    private long _loops,_tasks,_helpers;
+    private long _queue,_task,_elapsed,_capacity; // nanoseconds
+  }
+
+  /**
+   * Returns a scheduler that uses the common fork-join pool.
+   * @return the scheduler.
+   */
+  public static LoopScheduler forkJoin() {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    return new LoopScheduler(pool,pool.getParallelism()+1);
+  }
+
+  /**
+   * Returns a scheduler with a new pool of daemon threads.
+   * @param nthread the number of threads, and the parallelism.
+   * @return the scheduler.
+   */
+  public static LoopScheduler fixed(int nthread) {
+    return new LoopScheduler(Executors.newFixedThreadPool(nthread,
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r,"LoopScheduler-worker");
+          t.setDaemon(true);
+          return t;
+        }
+      }),nthread);
+  }
+
+  /**
+   * Returns a scheduler that runs each helper in a new thread. On JDKs
+   * with virtual threads, the factory may be that of a virtual thread
+   * builder, so that parallelism is bounded by the carrier threads.
+   * @param factory the factory for threads.
+   * @param parallelism the maximum number of threads per loop.
+   * @return the scheduler.
+   */
+  public static LoopScheduler threadPerTask(
+    final ThreadFactory factory, int parallelism)
+  {
+    return new LoopScheduler(new Executor() {
+      public void execute(Runnable r) {
+        factory.newThread(r).start();
+      }
+    },parallelism);
+  }
+
+  /**
+   * Constructs a scheduler that uses the specified executor.
+   * @param executor the executor for helpers.
+   * @param parallelism the maximum number of threads per loop, including
+   *  the thread that calls the loop.
+   */
+  public LoopScheduler(Executor executor, int parallelism) {
+    _executor = executor;
+    _parallelism = Math.max(1,parallelism);
+  }
+
+  /**
+   * Returns the maximum number of threads per loop.
+   * @return the parallelism.
+   */
+  public int getParallelism() {
+    return _parallelism;
+  }
+
+  /**
+   * Sets the number of consecutive indices in each task.
+   * @param grain the number of indices; zero, for about four tasks per
+   *  thread in each loop.
+   */
+  public void setGrain(int grain) {
+    _grain = Math.max(0,grain);
+  }
+
+  /**
+   * Performs a loop for indices 0 &lt;= i &lt; n.
+   * @param stage the name of the stage, for statistics.
+   * @param n the number of indices.
+   * @param body the loop body.
+   */
+  public void loop(String stage, int n, final Parallel.LoopInt body) {
+    if (n<=0) return;
+    run(stage,new Tasks(n,grain(n)) {
+      void compute(int it, int ia, int ib) {
+        for (int i=ia; i<ib; ++i)
+          body.compute(i);
+      }
+    });
+  }
+
+  /**
+   * Performs a reduce for indices 0 &lt;= i &lt; n. Results are combined
+   * in the order of their indices.
+   * @param stage the name of the stage, for statistics.
+   * @param n the number of indices.
+   * @param body the reduce body.
+   * @return the combined result; null, if n is zero.
+   */
+  public <T> T reduce(String stage, int n, final Parallel.ReduceInt<T> body) {
+    if (n<=0) return null;
+    int grain = grain(n);
+    final Object[] rs = new Object[(n+grain-1)/grain];
+    run(stage,new Tasks(n,grain) {
+      void compute(int it, int ia, int ib) {
+        T r = body.compute(ia);
+        for (int i=ia+1; i<ib; ++i)
+          r = body.combine(r,body.compute(i));
+        rs[it] = r;
+      }
+    });
+    @SuppressWarnings("unchecked")
+    T r = (T)rs[0];
+    for (int it=1; it<rs.length; ++it) {
+      @SuppressWarnings("unchecked")
+      T ri = (T)rs[it];
+      r = body.combine(r,ri);
+    }
+    return r;
+  }
+
+  /**
+   * Returns statistics for all stages, sorted by name.
+   * @return list of statistics.
+   */
+  public List<Stats> getStats() {
+    ArrayList<Stats> list = new ArrayList<Stats>();
+    for (Map.Entry<String,Counters> e:new TreeMap<String,Counters>(
+           _counters).entrySet()) {
+      Counters c = e.getValue();
+      Stats s = new Stats();
+      s._stage = e.getKey();
+      s._loops = c.loops.sum();
+      s._tasks = c.tasks.sum();
+      s._helpers = c.helpers.sum();
+      s._queue = c.queue.sum();
+      s._task = c.task.sum();
+      s._elapsed = c.elapsed.sum();
+      s._capacity = c.capacity.sum();
+      list.add(s);
+    }
+    return list;
+  }
+
+  /**
+   * Discards statistics for all stages.
+   */
+  public void resetStats() {
+    _counters.clear();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // package
+
+  /**
+   * Performs a loop with a scheduler, or with {@link Parallel} if the
+   * scheduler is null.
+   */
+  static void loop(
+    LoopScheduler ls, String stage, int n, Parallel.LoopInt body)
+  {
+    if (ls!=null) {
+      ls.loop(stage,n,body);
+    } else {
+      Parallel.loop(n,body);
+    }
+  }
+
+  /**
+   * Performs a reduce with a scheduler, or with {@link Parallel} if the
+   * scheduler is null.
+   */
+  static <T> T reduce(
+    LoopScheduler ls, String stage, int n, Parallel.ReduceInt<T> body)
+  {
+    return (ls!=null)?ls.reduce(stage,n,body):Parallel.reduce(n,body);
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private Executor _executor;
+  private int _parallelism;
+  private int _grain; // indices per task; zero, for automatic
+  private ConcurrentHashMap<String,Counters> _counters =
+    new ConcurrentHashMap<String,Counters>();
+
+  // Sums for one stage, in nanoseconds for times.
+  private static class Counters {
+    LongAdder loops = new LongAdder();
+    LongAdder tasks = new LongAdder();
+    LongAdder helpers = new LongAdder();
+    LongAdder queue = new LongAdder();
+    LongAdder task = new LongAdder();
+    LongAdder elapsed = new LongAdder();
+    LongAdder capacity = new LongAdder();
+  }
+
+  // Tasks of one loop, taken by the calling thread and helpers.
+  private abstract static class Tasks implements Runnable {
+    Tasks(int n, int grain) {
+      this.n = n;
+      this.grain = grain;
+      nt = (n+grain-1)/grain;
+    }
+    abstract void compute(int it, int ia, int ib);
+    public void run() { // in a helper
+      c.helpers.increment();
+      c.queue.add(System.nanoTime()-submitted);
+      take();
+    }
+    void take() {
+      for (int it=next.getAndIncrement(); it<nt; it=next.getAndIncrement()) {
+        if (failure.get()==null) {
+          long t = System.nanoTime();
+          try {
+            int ia = it*grain;
+            compute(it,ia,Math.min(n,ia+grain));
+          } catch (Throwable e) {
+            failure.compareAndSet(null,e);
+          }
+          c.task.add(System.nanoTime()-t);
+          c.tasks.increment();
+        }
+        if (done.incrementAndGet()==nt) {
+          synchronized (this) {
+            notifyAll();
+          }
+        }
+      }
+    }
+    void await() {
+      boolean interrupted = false;
+      synchronized (this) {
+        while (done.get()<nt) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+    int n,grain,nt;
+    Counters c;
+    long submitted;
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger done = new AtomicInteger();
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+  }
+
+  private int grain(int n) {
+    return (_grain>0)?_grain:Math.max(1,n/(4*_parallelism));
+  }
+
+  private Counters counters(String stage) {
+    Counters c = _counters.get(stage);
+    if (c==null) {
+      Counters d = _counters.putIfAbsent(stage,c=new Counters());
+      if (d!=null) c = d;
+    }
+    return c;
+  }
+
+  // Submits helpers, takes tasks until none remain, and waits for tasks
+  // taken by helpers. Rethrows the first exception thrown by a task.
+  private void run(String stage, Tasks ts) {
+    long t0 = System.nanoTime();
+    ts.c = counters(stage);
+    ts.submitted = t0;
+    int nh = Math.min(_parallelism,ts.nt)-1;
+    for (int ih=0; ih<nh; ++ih) {
+      try {
+        _executor.execute(ts);
+      } catch (RejectedExecutionException e) {
+        nh = ih; // the caller takes the remaining tasks
+      }
+    }
+    ts.take();
+    ts.await();
+    long elapsed = System.nanoTime()-t0;
+    ts.c.loops.increment();
+    ts.c.elapsed.add(elapsed);
+    ts.c.capacity.add(elapsed*(nh+1));
+    Throwable e = ts.failure.get();
+    if (e instanceof RuntimeException)
+      throw (RuntimeException)e;
+    if (e instanceof Error)
+      throw (Error)e;
+    if (e!=null)
+      throw new RuntimeException(e);
+  }
+}
@@ -1,5 +1,7 @@
 package sbp;
 
+import java.util.concurrent.CancellationException;
+
 import edu.mines.jtk.util.*;
 import static edu.mines.jtk.util.ArrayMath.*;
 
@@ -11,12 +13,113 @@ import static edu.mines.jtk.util.ArrayMath.*;
  */
 
 public class OptimalPathPicker {
+
+  /**
+   * Monitors the progress of picking, and may cancel it.
+   * Monitors shared by pickers in different threads must be thread-safe.
+   */
+  public interface Monitor {
+    /**
+     * Called after each row of accumulated costs has been computed.
+     * @return true, to continue picking; false, to cancel.
+     */
+    public boolean rowComputed();
+  }
  
   public OptimalPathPicker(int gate, float an) {
     _gate = gate;
     _an = an;
   }
 
+  /**
+   * Sets the monitor notified as rows of costs are computed. If the 
+   * monitor cancels picking, picks throw a CancellationException.
+   * @param monitor the monitor; null, for none.
+   */
+  public void setMonitor(Monitor monitor) {
+    _monitor = monitor;
+  }
+
+  /**
+   * Sets the scheduler for parallel loops over inlines and crosslines.
+   * @param scheduler the scheduler; null, for {@link Parallel}.
+   */
+  public void setScheduler(LoopScheduler scheduler) {
+    _scheduler = scheduler;
+  }
+
+  /**
+   * Sets gates for steps between rows of weights, which replace the gate 
+   * of this picker. Picks may move at most g-1 samples in a step with 
+   * gate g. Work for each row is proportional to its gate.
+   * @param gates array[n2] of gates, with gates[i2] for the step between
+   *  rows i2 and i2+1; null, to use the gate of this picker for all steps.
+   * @throws IllegalArgumentException if any gate is less than one or 
+   *  greater than the gate of this picker.
+   */
+  public void setGates(int[] gates) {
+    if (gates!=null) {
+      for (int g:gates) {
+        if (g<1 || g>_gate)
+          throw new IllegalArgumentException(
+            "gate "+g+" not in [1,"+_gate+"]");
+      }
+    }
+    _gates = gates;
+  }
+
+  /**
+   * Enables or disables pruning of closed picks. If pruning, the least 
+   * cost of paths from each sample to the last row is computed once, and
+   * samples with costs that, with that least cost, are not less than the
+   * cost of the best closed path found so far are not extended. Most 
+   * samples are pruned after the first closed path is found. Picks are 
+   * the same as without pruning. Weights must not be negative; if any 
+   * are, pruning is disabled.
+   * @param prune true, to prune; false, to extend all paths.
+   */
+  public void setPruning(boolean prune) {
+    _prune = prune;
+  }
+
+  /**
+   * Returns gates for steps between rows that follow the local dip of 
+   * weights. For each step, the dip is estimated by least squares from 
+   * derivatives of weights, and the gate is the smallest that contains 
+   * the largest dip in nearby steps, plus one sample. Gates are at least
+   * the specified minimum and at most the gate of this picker.
+   * @param wx array[n2][n1] of weights.
+   * @param gmin minimum gate.
+   * @return array[n2] of gates.
+   */
+  public int[] applyForGates(float[][] wx, int gmin) {
+    int n2 = wx.length;
+    int n1 = wx[0].length;
+    float[] dips = new float[n2];
+    for (int i2=0; i2<n2-1; ++i2) {
+      float[] w1 = wx[i2];
+      float[] w2 = wx[i2+1];
+      double num = 0.0, den = 0.0;
+      for (int i1=1; i1<n1-1; ++i1) {
+        float g1 = 0.25f*(w1[i1+1]-w1[i1-1]+w2[i1+1]-w2[i1-1]);
+        float g2 = w2[i1]-w1[i1];
+        num += g1*g2;
+        den += g1*g1;
+      }
+      dips[i2] = (den>0.0)?(float)abs(num/den):0f;
+    }
+    dips[n2-1] = dips[max(0,n2-2)];
+    int[] gates = new int[n2];
+    for (int i2=0; i2<n2; ++i2) {
+      float dmax = 0f;
+      for (int j2=max(0,i2-GATE_ROWS); j2<=min(n2-1,i2+GATE_ROWS); ++j2)
+        dmax = max(dmax,dips[j2]);
+      int g = (int)ceil(dmax)+2;
+      gates[i2] = min(_gate,max(gmin,g));
+    }
+    return gates;
+  }
+
 
   public float[][] applyTransform(float[][] fx) {
     int n2 = fx.length;
@@ -56,11 +159,11 @@ public class OptimalPathPicker {
     final int n2 = vel[0].length;
     final int n1 = vel[0][0].length;
     final float[][] p1 = new float[n2][n3];
-    Parallel.loop(n2,new Parallel.LoopInt() {
+    LoopScheduler.loop(_scheduler,"accumulateInline",n2,new Parallel.LoopInt() {
     public void compute(int i2) {
       float[][] w1 = new float[n3][n1];
-      float[][] tf = new float[n3][n1];
-      float[][] tb = new float[n3][n1];
+      float[][] tf = new float[n1][n3]; // costs are transposed
+      float[][] tb = new float[n1][n3];
       for (int i3=0; i3<n3; ++i3) {
       for (int i1=0; i1<n1; ++i1) {
         w1[i3][i1] = exp(-vel[i3][i2][i1]);
@@ -71,7 +174,7 @@ public class OptimalPathPicker {
       p1[i2] = backwardPick(i0,w1,tb);
       for (int i3=0; i3<n3; ++i3) {
       for (int i1=0; i1<n1; ++i1) {
-        vel[i3][i2][i1] = tf[i3][i1]+tb[i3][i1];
+        vel[i3][i2][i1] = tf[i1][i3]+tb[i1][i3];
       }}
     }});
     return p1;
@@ -82,11 +185,11 @@ public class OptimalPathPicker {
     final int n2 = vel[0].length;
     final int n1 = vel[0][0].length;
     final float[][] p1 = new float[n2][n3];
-    Parallel.loop(n2,new Parallel.LoopInt() {
+    LoopScheduler.loop(_scheduler,"accumulateInline",n2,new Parallel.LoopInt() {
     public void compute(int i2) {
       float[][] w1 = new float[n3][n1];
-      float[][] tf = new float[n3][n1];
-      float[][] tb = new float[n3][n1];
+      float[][] tf = new float[n1][n3]; // costs are transposed
+      float[][] tb = new float[n1][n3];
       for (int i3=0; i3<n3; ++i3) {
       for (int i1=0; i1<n1; ++i1) {
         w1[i3][i1] = exp(-vel[i3][i2][i1]);
@@ -97,7 +200,7 @@ public class OptimalPathPicker {
       p1[i2] = backwardPick(i10,w1,tb);
       for (int i3=0; i3<n3; ++i3) {
       for (int i1=0; i1<n1; ++i1) {
-        vel[i3][i2][i1] = tf[i3][i1]+tb[i3][i1];
+        vel[i3][i2][i1] = tf[i1][i3]+tb[i1][i3];
       }}
     }});
     return p1;
@@ -109,11 +212,12 @@ public class OptimalPathPicker {
     final int n2 = vel[0].length;
     final int n1 = vel[0][0].length;
     final float[][] p2 = new float[n3][n2];
-    Parallel.loop(n3,new Parallel.LoopInt() {
+    LoopScheduler.loop(_scheduler,"accumulateCrossline",n3,
+      new Parallel.LoopInt() {
     public void compute(int i3) {
       float[][] vel3 = vel[i3];
-      float[][] tf = new float[n2][n1];
-      float[][] tb = new float[n2][n1];
+      float[][] tf = new float[n1][n2]; // costs are transposed
+      float[][] tb = new float[n1][n2];
       float[][] w2 = new float[n2][n1];
       for (int i2=0; i2<n2; ++i2) {
       for (int i1=0; i1<n1; ++i1) {
@@ -127,13 +231,283 @@ public class OptimalPathPicker {
       p2[i3] = backwardPick(i0,w2,tb);
       for (int i2=0; i2<n2; ++i2) {
       for (int i1=0; i1<n1; ++i1) {
-        vel3[i2][i1] = tf[i2][i1]+tb[i2][i1];
+        vel3[i2][i1] = tf[i1][i2]+tb[i1][i2];
       }}
     }});
     return p2;
   }
 
 
+  /**
+   * Accumulates costs along inlines of a volume with contiguous storage,
+   * as for arrays. Each inline is copied to and from temporary arrays.
+   * @param vel array of costs, replaced with accumulated costs.
+   * @return array[n2][n3] of picks.
+   */
+  public float[][] accumulateInline(FloatImage vel) {
+    return accumulateInline(false,0,vel);
+  }
+
+  /**
+   * Accumulates costs along inlines of a volume with contiguous storage,
+   * as for arrays, with picks that begin and end at a specified sample.
+   * @param i10 index of the first and last sample of picks.
+   * @param vel array of costs, replaced with accumulated costs.
+   * @return array[n2][n3] of picks.
+   */
+  public float[][] accumulateInline(int i10, FloatImage vel) {
+    return accumulateInline(true,i10,vel);
+  }
+
+  /**
+   * Accumulates costs along crosslines of a volume with contiguous 
+   * storage, as for arrays. 
+   * @param p array[n3] of samples at which picks begin.
+   * @param vel array of costs, replaced with accumulated costs.
+   * @return array[n3][n2] of picks.
+   */
+  public float[][] accumulateCrossline(
+    final float[] p, final FloatImage vel)
+  {
+    final int n3 = vel.getN3();
+    final int n2 = vel.getN2();
+    final int n1 = vel.getN1();
+    final float[][] p2 = new float[n3][n2];
+    LoopScheduler.loop(_scheduler,"accumulateCrossline",n3,
+      new Parallel.LoopInt() {
+    public void compute(int i3) {
+      float[][] tf = new float[n1][n2]; // costs are transposed
+      float[][] tb = new float[n1][n2];
+      float[][] w2 = new float[n2][n1];
+      for (int i2=0; i2<n2; ++i2) {
+        vel.getTrace(i2,i3,w2[i2]);
+        for (int i1=0; i1<n1; ++i1)
+          w2[i2][i1] = exp(-w2[i2][i1]);
+      }
+      int i0 = round(p[i3]);
+      i0 = min(i0,n1-1);i0 = max(i0,0);
+      p2[i3] = forwardPick(i0,w2,tf);
+      i0 = round(p2[i3][n2-1]);
+      i0 = min(i0,n1-1); i0 = max(i0,0);
+      p2[i3] = backwardPick(i0,w2,tb);
+      for (int i2=0; i2<n2; ++i2) {
+        for (int i1=0; i1<n1; ++i1)
+          w2[i2][i1] = tf[i1][i2]+tb[i1][i2];
+        vel.setTrace(i2,i3,w2[i2]);
+      }
+    }});
+    return p2;
+  }
+
+  private float[][] accumulateInline(
+    final boolean fixed, final int i10, final FloatImage vel) 
+  {
+    final int n3 = vel.getN3();
+    final int n2 = vel.getN2();
+    final int n1 = vel.getN1();
+    final float[][] p1 = new float[n2][n3];
+    LoopScheduler.loop(_scheduler,"accumulateInline",n2,new Parallel.LoopInt() {
+    public void compute(int i2) {
+      float[][] w1 = new float[n3][n1];
+      float[][] tf = new float[n1][n3]; // costs are transposed
+      float[][] tb = new float[n1][n3];
+      for (int i3=0; i3<n3; ++i3) {
+        vel.getTrace(i2,i3,w1[i3]);
+        for (int i1=0; i1<n1; ++i1)
+          w1[i3][i1] = exp(-w1[i3][i1]);
+      }
+      p1[i2] = forwardPick(fixed?i10:n1-1,w1,tf);
+      int i0 = round(p1[i2][n3-1]);
+      i0 = min(i0,n1-1); i0 = max(i0,0);
+      p1[i2] = backwardPick(fixed?i10:i0,w1,tb);
+      for (int i3=0; i3<n3; ++i3) {
+        for (int i1=0; i1<n1; ++i1)
+          w1[i3][i1] = tf[i1][i3]+tb[i1][i3];
+        vel.setTrace(i2,i3,w1[i3]);
+      }
+    }});
+    return p1;
+  }
+
+  /**
+   * Picks the minimum-cost closed path, for which the first and last rows
+   * of weights are the same row, and picks in those rows are equal. 
+   * <p>
+   * For an interval of first samples, one pass with all samples in that 
+   * interval as sources gives the cost of the best path to each sample 
+   * in the last row. The smallest of those costs for last samples in the 
+   * interval is a lower bound on the cost of closed paths that begin in 
+   * the interval, and is the cost of a closed path if the best path ends 
+   * where it begins. Otherwise, the interval is divided in two, and 
+   * intervals with bounds not less than the best closed path found are 
+   * discarded. The closed path is exact, and typically found with a few 
+   * passes instead of one for each of the n1 first samples. Picks are 
+   * samples, without the sub-sample interpolation of open picks.
+   * @param wx array[n2][n1] of weights.
+   * @return array[n2] of picks.
+   */
+  public float[] pickClosed(float[][] wx) {
+    int n2 = wx.length;
+    int n1 = wx[0].length;
+    ClosedPicker cp = new ClosedPicker(wx);
+    cp.pick(0,n1-1);
+    if (cp.best==null)
+      throw new IllegalStateException("no closed path within the gate");
+    float[] p = new float[n2];
+    for (int i2=0; i2<n2; ++i2)
+      p[i2] = cp.best[i2];
+    return p;
+  }
+
+  // Finds the closed path with smallest cost by branch and bound over 
+  // intervals of first samples.
+  private class ClosedPicker {
+    float[][] wx;
+    float[] dist;
+    int[][] from; // samples in previous rows on paths
+    float[] prev,next;
+    int[] sprev,snext; // first samples of paths
+    int[] best;
+    float cost = FLT_MAX;
+    boolean first = true;
+    float[][] rest; // least costs from samples to the last row, if pruning
+    ClosedPicker(float[][] wx) {
+      int n2 = wx.length;
+      int n1 = wx[0].length;
+      this.wx = wx;
+      dist = new float[n1];
+      for (int i1=0; i1<n1; ++i1)
+        dist[i1] = sqrt(i1*i1+_an*_an);
+      from = new int[n2][n1];
+      prev = new float[n1];
+      next = new float[n1];
+      sprev = new int[n1];
+      snext = new int[n1];
+      if (_prune && min(wx)>=0f)
+        rest = restCosts();
+    }
+
+    // Returns the least costs of paths from each sample to any sample in 
+    // the last row, with steps that cost the same as in picks.
+    float[][] restCosts() {
+      int n2 = wx.length;
+      int n1 = wx[0].length;
+      float[][] h = new float[n2][n1];
+      for (int i2=n2-2; i2>=0; --i2) {
+        float[] w1 = wx[i2];
+        float[] w2 = wx[i2+1];
+        float[] h1 = h[i2];
+        float[] h2 = h[i2+1];
+        int g = gate(i2);
+        for (int k=0; k<n1; ++k) {
+          float c = FLT_MAX;
+          int ib = max(0,k-g+1), ie = min(n1-1,k+g-1);
+          for (int i1=ib; i1<=ie; ++i1) {
+            float d = h2[i1]+dist[abs(i1-k)]*0.5f*(w1[k]+w2[i1]);
+            if (d<c) c = d;
+          }
+          h1[k] = c;
+        }
+        rowComputed();
+      }
+      return h;
+    }
+
+    // Returns the least cost from a sample to the last row, if pruning.
+    float rest(int i2, int i1) {
+      return (rest!=null)?rest[i2][i1]:0f;
+    }
+
+    // Finds the best closed path with first sample ia <= is <= ib, if 
+    // better than the best found so far.
+    void pick(int ia, int ib) {
+      int n2 = wx.length;
+      int n1 = wx[0].length;
+      fill(FLT_MAX,prev);
+      for (int is=ia; is<=ib; ++is) {
+        prev[is] = 0f;
+        sprev[is] = is;
+      }
+      // If pruning, samples from which even the least cost of the rest of
+      // a path exceeds the cost of the best closed path are not extended.
+      // The bound is increased slightly, to allow for rounding of costs.
+      double bound = (rest!=null && cost<FLT_MAX) ?
+        cost*(1.0+2.0e-6*n2) :
+        Double.MAX_VALUE;
+      int lo = ia, hi = ib; // range of samples in paths in previous row
+      for (int i2=1; i2<n2; ++i2) {
+        float[] w1 = wx[i2-1];
+        float[] w2 = wx[i2];
+        int[] fi = from[i2];
+        int g = gate(i2-1);
+        int ja = max(0,lo-g+1), jb = min(n1-1,hi+g-1);
+        lo = n1;
+        hi = -1;
+        for (int i1=0; i1<n1; ++i1) {
+          float c = FLT_MAX;
+          int ic = -1;
+          if (ja<=i1 && i1<=jb) {
+            int kb = max(0,i1-g+1), ke = min(n1-1,i1+g-1);
+            for (int k=kb; k<=ke; ++k) {
+              if (prev[k]==FLT_MAX) continue;
+              float d = prev[k]+dist[abs(i1-k)]*0.5f*(w1[k]+w2[i1]);
+              if (d<c) {
+                c = d;
+                ic = k;
+              }
+            }
+            if (ic>=0 && c+(double)rest(i2,i1)>=bound) {
+              c = FLT_MAX;
+              ic = -1;
+            }
+          }
+          if (ic>=0) {
+            lo = min(lo,i1);
+            hi = i1;
+          }
+          next[i1] = c;
+          snext[i1] = (ic>=0)?sprev[ic]:-1;
+          fi[i1] = ic;
+        }
+        float[] t = prev; prev = next; next = t;
+        int[] u = sprev; sprev = snext; snext = u;
+        rowComputed();
+      }
+      // Keep the best of any closed paths found, which may end at samples
+      // other than that with the lower bound.
+      int ie = -1, je = -1;
+      for (int i1=ia; i1<=ib; ++i1) {
+        if (prev[i1]<cost && (ie<0 || prev[i1]<prev[ie]))
+          ie = i1;
+        if (sprev[i1]==i1 && prev[i1]<cost && (je<0 || prev[i1]<prev[je]))
+          je = i1;
+      }
+      if (je>=0) {
+        cost = prev[je];
+        best = new int[n2];
+        best[n2-1] = je;
+        for (int i2=n2-1; i2>0; --i2)
+          best[i2-1] = from[i2][best[i2]];
+      }
+      if (ie<0 || ie==je) return; // no better closed path in this interval
+      if (ia==ib) return;
+      if (first) {
+        // A closed path through the end of the best path is often nearly 
+        // the best, and its cost is a good bound for other intervals.
+        first = false;
+        pick(ie,ie);
+      }
+      int im = (ia+ib)/2;
+      if (ie<=im) {
+        pick(ia,im);
+        pick(im+1,ib);
+      } else {
+        pick(im+1,ib);
+        pick(ia,im);
+      }
+    }
+  }
+
   public float[] backwardPick(int i0, float[][] wx) {
     int n2 = wx.length;
     int n1 = wx[0].length;
@@ -160,10 +534,11 @@ public class OptimalPathPicker {
 
     float[] prob = new float[_gate*2-1];
     for (int i2=n2-3; i2>=0; i2--) {
+      int g = gate(i2);
 	    for (int i1=0; i1<n1; i1++) {
 	      float wi = wx[i2][i1];
-	      int ib = max(i1-_gate,-1);
-	      int ie = min(i1+_gate,n1);
+	      int ib = max(i1-g,-1);
+	      int ie = min(i1+g,n1);
 	      float c = FLT_MAX;
 	      int ic = -1;
 	      for (int i=ib+1; i<ie; i++) {
@@ -184,6 +559,7 @@ public class OptimalPathPicker {
 	      prev[i1]=next[i1];
 	      tt[i2][i1]=prev[i1];
 	    }
+      rowComputed();
     }
     forwardTrack(p, next, what);
     return p;
@@ -217,10 +593,11 @@ public class OptimalPathPicker {
 
     float[] prob = new float[_gate*2-1];
     for (int i2=n2-3; i2>=0; i2--) {
+      int g = gate(i2);
 	    for (int i1=0; i1<n1; i1++) {
 	      float wi = wx[i2][i1];
-	      int ib = max(i1-_gate,-1);
-	      int ie = min(i1+_gate,n1);
+	      int ib = max(i1-g,-1);
+	      int ie = min(i1+g,n1);
 	      float c = FLT_MAX;
 	      int ic = -1;
 	      for (int i=ib+1; i<ie; i++) {
@@ -241,6 +618,7 @@ public class OptimalPathPicker {
 	      prev[i1]=next[i1];
 	      tt[i2][i1]=prev[i1];
 	    }
+      rowComputed();
     }
     forwardTrack(p, next, what);
     for (int i2=0; i2<n2;++i2) {
@@ -277,10 +655,11 @@ public class OptimalPathPicker {
 
     float[] prob = new float[_gate*2-1];
     for (int i2=2; i2<n2; i2++) {
+      int g = gate(i2-1);
 	    for (int i1=0; i1<n1; i1++) {
 	      float wi = wx[i2][i1];
-	      int ib = max(i1-_gate,-1);
-	      int ie = min(i1+_gate,n1);
+	      int ib = max(i1-g,-1);
+	      int ie = min(i1+g,n1);
 	      float c = FLT_MAX;
 	      int ic = -1;
 	      for (int i=ib+1; i<ie; i++) {
@@ -301,6 +680,7 @@ public class OptimalPathPicker {
 	      prev[i1]=next[i1];
 	      tt[i2][i1]=prev[i1];
 	    }
+      rowComputed();
     }
     backwardTrack(p, next, what);
     return p;
@@ -333,10 +713,11 @@ public class OptimalPathPicker {
 
     float[] prob = new float[_gate*2-1];
     for (int i2=2; i2<n2; i2++) {
+      int g = gate(i2-1);
 	    for (int i1=0; i1<n1; i1++) {
 	      float wi = wx[i2][i1];
-	      int ib = max(i1-_gate,-1);
-	      int ie = min(i1+_gate,n1);
+	      int ib = max(i1-g,-1);
+	      int ie = min(i1+g,n1);
 	      float c = FLT_MAX;
 	      int ic = -1;
 	      for (int i=ib+1; i<ie; i++) {
@@ -357,6 +738,7 @@ public class OptimalPathPicker {
 	      prev[i1]=next[i1];
 	      tt[i2][i1]=prev[i1];
 	    }
+      rowComputed();
     }
     backwardTrack(p, next, what);
     for (int i2=0; i2<n2;++i2) {
@@ -373,6 +755,10 @@ public class OptimalPathPicker {
     int ic, int nc, int jc, float c, float pick, float[] prob)
   {
     float fm, f0, fp, a, b;
+    if (nc<3) { /* too few samples for a parabola */
+      pick = ic+jc;
+      return new float[]{c,pick};
+    }
     if (0==ic) {
 	    ic++;
 	    fm=c;
@@ -547,8 +933,24 @@ public class OptimalPathPicker {
     }
   }
 
+  // Returns the gate for the step between rows i2 and i2+1.
+  private int gate(int i2) {
+    return (_gates!=null)?_gates[i2]:_gate;
+  }
+
+  private void rowComputed() {
+    if (_monitor!=null && !_monitor.rowComputed())
+      throw new CancellationException("picking canceled");
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   // private
+  private static final int GATE_ROWS = 4; // nearby steps for gates
+
   private int _gate;
+  private int[] _gates; // gates for steps between rows, if any
+  private boolean _prune; // true, to prune closed picks
   private float _an;
+  private Monitor _monitor;
+  private LoopScheduler _scheduler; // for parallel loops, if not null
 }
@@ -0,0 +1,114 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * A client of a {@link PickServer2}. A client has one connection and
+ * waits for the response to each request; clients in different threads
+ * are served concurrently.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class PickClient2 implements Closeable {
+
+  /**
+   * Connects to a server on this host.
+   * @param port the port of the server.
+   */
+  public PickClient2(int port) throws IOException {
+    _socket = new Socket(InetAddress.getLoopbackAddress(),port);
+    _socket.setTcpNoDelay(true);
+    _dis = new DataInputStream(
+      new BufferedInputStream(_socket.getInputStream()));
+    _dos = new DataOutputStream(
+      new BufferedOutputStream(_socket.getOutputStream()));
+  }
+
+  /**
+   * Loads a section, if not already loaded by any client.
+   * @param fileName name of a file of big-endian floats or a SEG-Y file.
+   * @param n1 number of samples in 1st dimension; zero for SEG-Y.
+   * @param n2 number of samples in 2nd dimension; zero for SEG-Y.
+   * @return the section id.
+   */
+  public int load(String fileName, int n1, int n2) throws IOException {
+    _dos.writeInt(PickServer2.LOAD);
+    _dos.writeUTF(fileName);
+    _dos.writeInt(n1);
+    _dos.writeInt(n2);
+    response();
+    return _dis.readInt();
+  }
+
+  /**
+   * Refines a boundary initialized from a control polygon.
+   * @param id the section id.
+   * @param r half-width, in samples, of the band around the boundary.
+   * @param d sampling interval of the band normal to the boundary.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   * @param c1 1st coordinates of the control polygon, not closed.
+   * @param c2 2nd coordinates of the control polygon, not closed.
+   * @return array {x1,x2,u1,u2} of boundary points and normal vectors.
+   */
+  public float[][] refine(
+    int id, int r, float d, int w, float a, float[] c1, float[] c2)
+    throws IOException
+  {
+    int nc = c1.length;
+    _dos.writeInt(PickServer2.REFINE);
+    _dos.writeInt(id);
+    _dos.writeInt(r);
+    _dos.writeFloat(d);
+    _dos.writeInt(w);
+    _dos.writeFloat(a);
+    _dos.writeInt(nc);
+    for (int ic=0; ic<nc; ++ic) _dos.writeFloat(c1[ic]);
+    for (int ic=0; ic<nc; ++ic) _dos.writeFloat(c2[ic]);
+    response();
+    int np = _dis.readInt();
+    float[][] xus = new float[4][np];
+    for (int i=0; i<4; ++i)
+      for (int ip=0; ip<np; ++ip)
+        xus[i][ip] = _dis.readFloat();
+    return xus;
+  }
+
+  /**
+   * Unloads a section, for all clients.
+   * @param id the section id.
+   */
+  public void unload(int id) throws IOException {
+    _dos.writeInt(PickServer2.UNLOAD);
+    _dos.writeInt(id);
+    response();
+  }
+
+  /**
+   * Closes the connection.
+   */
+  public void close() throws IOException {
+    _socket.close();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private Socket _socket;
+  private DataInputStream _dis;
+  private DataOutputStream _dos;
+
+  // Sends a request and reads the status of its response.
+  private void response() throws IOException {
+    _dos.flush();
+    if (_dis.readInt()!=PickServer2.OK)
+      throw new IOException(_dis.readUTF());
+  }
+}
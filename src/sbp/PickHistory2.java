@@ -0,0 +1,525 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Undo and redo history for picking salt bodies in a 2D section.
+ * <p>
+ * Edits of bodies and their control points are made through this history,
+ * in steps that begin and end with the current body index. All edits in
+ * one step, such as all points added while dragging the mouse, are undone
+ * and redone together. A step records only deltas: points added and
+ * removed, with their ids and neighbors, and bodies added and removed.
+ * Because steps are undone and redone in strict order, point ids are
+ * restored exactly.
+ * <p>
+ * Boundaries of bodies whose points are edited, or whose pickers are
+ * replaced, are recorded before and after each step. A boundary that is
+ * the initial boundary for the control points, as when not yet refined,
+ * is recorded with one byte. Other boundaries are recorded with
+ * differences of coordinates quantized to 1/1024 sample and of normal
+ * directions quantized to 1/10000 radian, in variable-length integers,
+ * so that most points require about four bytes. When steps exceed a
+ * maximum number of bytes, the oldest steps are discarded.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class PickHistory2 {
+
+  /**
+   * Constructs a history with a maximum of 4 MB.
+   * @param n1 number of samples in 1st dimension of the section.
+   * @param n2 number of samples in 2nd dimension of the section.
+   * @param bodies the salt bodies; referenced, not copied.
+   * @param points list of control points, one per body; referenced.
+   */
+  public PickHistory2(
+    int n1, int n2, SaltBodies2 bodies, ArrayList<ControlPoints2> points)
+  {
+    this(n1,n2,bodies,points,4L<<20);
+  }
+
+  /**
+   * Constructs a history.
+   * @param n1 number of samples in 1st dimension of the section.
+   * @param n2 number of samples in 2nd dimension of the section.
+   * @param bodies the salt bodies; referenced, not copied.
+   * @param points list of control points, one per body; referenced.
+   * @param maxBytes maximum number of bytes in recorded steps.
+   */
+  public PickHistory2(
+    int n1, int n2, SaltBodies2 bodies, ArrayList<ControlPoints2> points, 
+    long maxBytes)
+  {
+    _n1 = n1;
+    _n2 = n2;
+    _bodies = bodies;
+    _points = points;
+    _maxBytes = maxBytes;
+  }
+
+  /**
+   * Begins a step. Steps may be nested; edits made before the outermost
+   * step ends are undone together.
+   * @param ib index of the current body before the step.
+   */
+  public void begin(int ib) {
+    if (_depth++==0)
+      _step = new Step(ib);
+  }
+
+  /**
+   * Ends a step. A step with no edits is not recorded.
+   * @param ib index of the current body after the step.
+   */
+  public void end(int ib) {
+    if (_depth==0)
+      throw new IllegalStateException("no step to end");
+    if (--_depth>0) return;
+    Step s = _step;
+    _step = null;
+    s.ibAfter = ib;
+    int nt = s.touched.size();
+    if (s.nop==0 && nt==0) return;
+    s.before = s.beforeList.toArray(new byte[nt][]);
+    s.beforeList = null;
+    s.after = new byte[nt][];
+    for (int it=0; it<nt; ++it)
+      s.after[it] = encode(s.touched.get(it));
+    s.ops = Arrays.copyOf(s.ops,s.nop*OP_BYTES);
+    s.nbyte = s.bytes();
+    _redo.clear();
+    _undo.addLast(s);
+    _bytes += s.nbyte;
+    while (_bytes>_maxBytes && _undo.size()>1)
+      _bytes -= _undo.removeFirst().nbyte;
+    fireBodiesChanged(ib,s);
+  }
+
+  /**
+   * Adds a point after the last control point of a body.
+   * @param ib the body index.
+   * @param x1 coordinate in 1st dimension.
+   * @param x2 coordinate in 2nd dimension.
+   * @return the id of the point.
+   */
+  public int addPoint(int ib, float x1, float x2) {
+    touch(ib);
+    int id = _points.get(ib).add(x1,x2);
+    putOp(ADD_POINT,ib,id,-1,x1,x2);
+    return id;
+  }
+
+  /**
+   * Removes a control point of a body.
+   * @param ib the body index.
+   * @param id the id of the point.
+   */
+  public void removePoint(int ib, int id) {
+    touch(ib);
+    ControlPoints2 points = _points.get(ib);
+    putOp(REMOVE_POINT,ib,id,points.getPrevious(id),
+          points.getX1(id),points.getX2(id));
+    points.remove(id);
+  }
+
+  /**
+   * Adds a body with no control points.
+   * @return the index of the new body.
+   */
+  public int addBody() {
+    return addBody(null);
+  }
+
+  /**
+   * Adds a body with no control points and the boundary of a picker, 
+   * such as a boundary read from a file.
+   * @param picker the picker; null, for a body with no boundary.
+   * @return the index of the new body.
+   */
+  public int addBody(SaltPicker2 picker) {
+    bodyEdited();
+    putOp(ADD_BODY,0,_step.refs.size(),0,0f,0f);
+    _step.refs.add(null); // points and picker, after undo
+    _step.refs.add(null);
+    _points.add(new ControlPoints2(_n1,_n2));
+    int ib = _bodies.addBody();
+    if (picker!=null)
+      _bodies.setPicker(ib,picker);
+    return ib;
+  }
+
+  /**
+   * Removes a body with its control points.
+   * @param ib the body index.
+   */
+  public void removeBody(int ib) {
+    bodyEdited();
+    putOp(REMOVE_BODY,ib,_step.refs.size(),0,0f,0f);
+    _step.refs.add(_points.remove(ib));
+    _step.refs.add(_bodies.getPicker(ib));
+    _bodies.removeBody(ib);
+  }
+
+  /**
+   * Replaces the picker of a body, such as with a refined boundary.
+   * @param ib the body index.
+   * @param picker the picker.
+   */
+  public void setPicker(int ib, SaltPicker2 picker) {
+    touch(ib);
+    _bodies.setPicker(ib,picker);
+  }
+
+  /**
+   * A listener notified when a step is recorded, undone or redone.
+   */
+  public interface Listener {
+
+    /**
+     * Called after bodies have changed.
+     * @param ib index of the current body.
+     * @param ibs indices of bodies changed; null, if bodies were added 
+     *  or removed, so that all bodies may have changed.
+     */
+    public void bodiesChanged(int ib, int[] ibs);
+  }
+
+  /**
+   * Adds a listener.
+   * @param listener the listener.
+   */
+  public void addListener(Listener listener) {
+    _listeners.add(listener);
+  }
+
+  /**
+   * Determines whether a step can be undone.
+   * @return true, if can undo; false, otherwise.
+   */
+  public boolean canUndo() {
+    return _depth==0 && !_undo.isEmpty();
+  }
+
+  /**
+   * Determines whether a step can be redone.
+   * @return true, if can redo; false, otherwise.
+   */
+  public boolean canRedo() {
+    return _depth==0 && !_redo.isEmpty();
+  }
+
+  /**
+   * Undoes the most recent step.
+   * @return index of the current body before the step; -1, if none.
+   */
+  public int undo() {
+    if (!canUndo()) return -1;
+    Step s = _undo.removeLast();
+    ByteBuffer bb = ByteBuffer.wrap(s.ops);
+    for (int iop=s.nop-1; iop>=0; --iop) {
+      bb.position(iop*OP_BYTES);
+      byte op = bb.get();
+      int ib = bb.getInt(), id = bb.getInt(), prev = bb.getInt();
+      float x1 = bb.getFloat(), x2 = bb.getFloat();
+      if (op==ADD_POINT) {
+        _points.get(ib).remove(id);
+      } else if (op==REMOVE_POINT) {
+        _points.get(ib).insert(prev,x1,x2);
+      } else if (op==ADD_BODY) {
+        int nb = _bodies.countBodies();
+        s.refs.set(id,_points.remove(nb-1));
+        s.refs.set(id+1,_bodies.getPicker(nb-1));
+        _bodies.removeBody(nb-1);
+      } else if (op==REMOVE_BODY) {
+        _points.add(ib,(ControlPoints2)s.refs.get(id));
+        _bodies.insertBody(ib,(SaltPicker2)s.refs.get(id+1));
+      }
+    }
+    for (int it=0; it<s.touched.size(); ++it)
+      decode(s.touched.get(it),s.before[it]);
+    _bytes -= s.nbyte;
+    _redo.addLast(s);
+    fireBodiesChanged(s.ibBefore,s);
+    return s.ibBefore;
+  }
+
+  /**
+   * Redoes the most recently undone step.
+   * @return index of the current body after the step; -1, if none.
+   */
+  public int redo() {
+    if (!canRedo()) return -1;
+    Step s = _redo.removeLast();
+    ByteBuffer bb = ByteBuffer.wrap(s.ops);
+    for (int iop=0; iop<s.nop; ++iop) {
+      byte op = bb.get();
+      int ib = bb.getInt(), id = bb.getInt();
+      bb.getInt();
+      float x1 = bb.getFloat(), x2 = bb.getFloat();
+      if (op==ADD_POINT) {
+        _points.get(ib).add(x1,x2);
+      } else if (op==REMOVE_POINT) {
+        _points.get(ib).remove(id);
+      } else if (op==ADD_BODY) {
+        _points.add((ControlPoints2)s.refs.get(id));
+        _bodies.insertBody(_bodies.countBodies(),
+                           (SaltPicker2)s.refs.get(id+1));
+      } else if (op==REMOVE_BODY) {
+        _points.remove(ib);
+        _bodies.removeBody(ib);
+      }
+    }
+    for (int it=0; it<s.touched.size(); ++it)
+      decode(s.touched.get(it),s.after[it]);
+    _bytes += s.nbyte;
+    _undo.addLast(s);
+    fireBodiesChanged(s.ibAfter,s);
+    return s.ibAfter;
+  }
+
+  /**
+   * Discards all recorded steps.
+   */
+  public void clear() {
+    _undo.clear();
+    _redo.clear();
+    _bytes = 0L;
+  }
+
+  /**
+   * Returns the number of steps that can be undone.
+   * @return the number of steps.
+   */
+  public int countSteps() {
+    return _undo.size();
+  }
+
+  /**
+   * Returns the number of bytes in steps that can be undone.
+   * @return the number of bytes.
+   */
+  public long getBytes() {
+    return _bytes;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final byte ADD_POINT = 1;
+  private static final byte REMOVE_POINT = 2;
+  private static final byte ADD_BODY = 3;
+  private static final byte REMOVE_BODY = 4;
+  private static final int OP_BYTES = 21; // type, 3 ints and 2 floats
+
+  private static final byte NONE = 0; // no boundary
+  private static final byte INITIAL = 1; // initial boundary for points
+  private static final byte CODED = 2; // quantized boundary
+  private static final float XSCALE = 1024f; // quantization of coordinates
+  private static final float USCALE = 10000f; // and of normal directions
+
+  private int _n1,_n2;
+  private SaltBodies2 _bodies;
+  private ArrayList<ControlPoints2> _points;
+  private long _maxBytes,_bytes;
+  private int _depth; // depth of nested steps
+  private ArrayList<Listener> _listeners = new ArrayList<Listener>();
+  private Step _step; // the step begun, if any
+  private ArrayDeque<Step> _undo = new ArrayDeque<Step>();
+  private ArrayDeque<Step> _redo = new ArrayDeque<Step>();
+
+  private static class Step {
+    int ibBefore,ibAfter; // current body before and after
+    byte[] ops = new byte[8*OP_BYTES];
+    int nop; // number of ops
+    long nbyte; // approximate number of bytes
+    boolean bodies; // true, if bodies were added or removed
+    ArrayList<Integer> touched = new ArrayList<Integer>(); // bodies edited
+    ArrayList<byte[]> beforeList = new ArrayList<byte[]>();
+    byte[][] before,after; // boundaries of bodies edited
+    // Bodies removed, and bodies added if the step has been undone.
+    ArrayList<Object> refs = new ArrayList<Object>();
+    Step(int ib) {
+      ibBefore = ib;
+    }
+    int[] changed() {
+      if (bodies) return null;
+      int[] ibs = new int[touched.size()];
+      for (int it=0; it<ibs.length; ++it)
+        ibs[it] = touched.get(it);
+      return ibs;
+    }
+    long bytes() {
+      long n = 64+ops.length;
+      for (byte[] b:before) n += b.length;
+      for (byte[] b:after) n += b.length;
+      for (Object o:refs) {
+        if (o==null) {
+          continue;
+        } else if (o instanceof ControlPoints2) {
+          n += 24L*((ControlPoints2)o).size();
+        } else {
+          float[][] xs = ((SaltPicker2)o).getBoundary();
+          n += 16L*xs[0].length;
+        }
+      }
+      return n;
+    }
+  }
+
+  private void fireBodiesChanged(int ib, Step s) {
+    int[] ibs = s.changed();
+    for (Listener listener:_listeners)
+      listener.bodiesChanged(ib,ibs);
+  }
+
+  private void checkStep() {
+    if (_step==null)
+      throw new IllegalStateException("edits must be made in a step");
+  }
+
+  // Records the boundary of a body before it is first edited in a step.
+  private void touch(int ib) {
+    checkStep();
+    if (_step.bodies)
+      throw new IllegalStateException("bodies were added or removed");
+    if (!_step.touched.contains(ib)) {
+      _step.touched.add(ib);
+      _step.beforeList.add(encode(ib));
+    }
+  }
+
+  private void bodyEdited() {
+    checkStep();
+    if (!_step.touched.isEmpty())
+      throw new IllegalStateException("bodies were edited");
+    _step.bodies = true;
+  }
+
+  private void putOp(
+    byte op, int ib, int id, int prev, float x1, float x2)
+  {
+    Step s = _step;
+    if ((s.nop+1)*OP_BYTES>s.ops.length)
+      s.ops = Arrays.copyOf(s.ops,2*s.ops.length);
+    ByteBuffer bb = ByteBuffer.wrap(s.ops);
+    bb.position(s.nop*OP_BYTES);
+    bb.put(op).putInt(ib).putInt(id).putInt(prev);
+    bb.putFloat(x1).putFloat(x2);
+    ++s.nop;
+  }
+
+  private byte[] encode(int ib) {
+    return encodeBoundary(_bodies.getPicker(ib),_points.get(ib));
+  }
+
+  private void decode(int ib, byte[] b) {
+    decodeBoundary(b,_bodies.getPicker(ib),_points.get(ib));
+  }
+
+  /**
+   * Encodes the boundary of a picker, for the control points of its body.
+   */
+  static byte[] encodeBoundary(SaltPicker2 picker, ControlPoints2 points) {
+    float[][] us = picker.getNormals();
+    if (us==null)
+      return new byte[]{NONE};
+    float[][] xs = picker.getBoundary();
+    float[] params = picker.getParameters();
+    if (params==null && !points.isEmpty()) {
+      float[][] ps = points.getPoints();
+      SaltPicker2 sp = new SaltPicker2();
+      sp.initialBoundary(1,ps[0],ps[1]);
+      float[][] xi = sp.getBoundary(), ui = sp.getNormals();
+      if (Arrays.equals(xs[0],xi[0]) && Arrays.equals(xs[1],xi[1]) &&
+          Arrays.equals(us[0],ui[0]) && Arrays.equals(us[1],ui[1]))
+        return new byte[]{INITIAL};
+    }
+    int np = xs[0].length;
+    ByteBuffer bb = ByteBuffer.allocate(22+4*5*np);
+    bb.put(CODED).put((byte)(params!=null?1:0));
+    bb.putInt(np);
+    if (params!=null)
+      for (float p:params) bb.putFloat(p);
+    int k1 = 0, k2 = 0, ka = 0;
+    for (int ip=0; ip<np; ++ip) {
+      int j1 = round(xs[0][ip]*XSCALE);
+      int j2 = round(xs[1][ip]*XSCALE);
+      int ja = round(atan2(us[1][ip],us[0][ip])*USCALE);
+      putVarint(bb,j1-k1);
+      putVarint(bb,j2-k2);
+      putVarint(bb,ja-ka);
+      k1 = j1; k2 = j2; ka = ja;
+    }
+    return Arrays.copyOf(bb.array(),bb.position());
+  }
+
+  /**
+   * Decodes a boundary into a picker, for the control points of its body.
+   */
+  static void decodeBoundary(
+    byte[] b, SaltPicker2 picker, ControlPoints2 points) 
+  {
+    if (b[0]==NONE) {
+      picker.clearBoundary();
+    } else if (b[0]==INITIAL) {
+      float[][] ps = points.getPoints();
+      picker.initialBoundary(1,ps[0],ps[1]);
+    } else {
+      ByteBuffer bb = ByteBuffer.wrap(b);
+      bb.get();
+      boolean hasParams = bb.get()!=0;
+      int np = bb.getInt();
+      float[] params = null;
+      if (hasParams) {
+        params = new float[4];
+        for (int i=0; i<4; ++i) params[i] = bb.getFloat();
+      }
+      float[][] xus = new float[4][np];
+      int k1 = 0, k2 = 0, ka = 0;
+      for (int ip=0; ip<np; ++ip) {
+        k1 += getVarint(bb);
+        k2 += getVarint(bb);
+        ka += getVarint(bb);
+        float a = ka/USCALE;
+        xus[0][ip] = k1/XSCALE;
+        xus[1][ip] = k2/XSCALE;
+        xus[2][ip] = cos(a);
+        xus[3][ip] = sin(a);
+      }
+      picker.setBoundary(xus);
+      picker.setParameters(params);
+    }
+  }
+
+  // Zigzag encoding, so that small negative ints also have few bytes.
+  private static void putVarint(ByteBuffer bb, int i) {
+    int z = (i<<1)^(i>>31);
+    while ((z&~0x7f)!=0) {
+      bb.put((byte)((z&0x7f)|0x80));
+      z >>>= 7;
+    }
+    bb.put((byte)z);
+  }
+
+  private static int getVarint(ByteBuffer bb) {
+    int z = 0;
+    for (int shift=0; ; shift+=7) {
+      byte b = bb.get();
+      z |= (b&0x7f)<<shift;
+      if ((b&0x80)==0) break;
+    }
+    return (z>>>1)^-(z&1);
+  }
+}
@@ -0,0 +1,463 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local service that refines salt boundaries in 2D sections for
+ * concurrent clients.
+ * <p>
+ * Sections are loaded once, balanced with a gain, and their envelopes
+ * kept in memory until unloaded, so that repeated requests for the same
+ * section neither read the image nor compute its envelope. Requests are
+ * received by one thread per connection, and work is done by a shared
+ * pool of worker threads. Refine requests queued by all clients are
+ * taken in batches, in which identical requests are refined only once;
+ * refined boundaries are also kept in a {@link RefineCache}.
+ * <p>
+ * The protocol is binary, with big-endian ints and floats, as written by
+ * {@link DataOutputStream}. Each request begins with an int op code:
+ * <pre>
+ *   LOAD   name(UTF) n1 n2           returns int section id
+ *   REFINE id r d w a nc c1[nc] c2[nc]
+ *                                    returns int np, x1,x2,u1,u2[np]
+ *   UNLOAD id                        returns nothing
+ * </pre>
+ * where n1 and n2 may be zero for SEG-Y files, and c1 and c2 are the
+ * coordinates of a closed control polygon. Each response begins with an
+ * int status, which is either OK followed by the values listed above, or
+ * ERROR followed by a UTF message. The server accepts connections on the
+ * loopback address only. {@link PickClient2} implements this protocol.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class PickServer2 implements Closeable {
+
+  /** The default port. */
+  public static final int PORT = 7347;
+
+  /**
+   * Starts a server with one worker per processor.
+   * @param port the port; zero, for any free port.
+   */
+  public PickServer2(int port) throws IOException {
+    this(port,Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Starts a server.
+   * @param port the port; zero, for any free port.
+   * @param nthread the number of worker threads.
+   */
+  public PickServer2(int port, int nthread) throws IOException {
+    _socket = new ServerSocket(port,50,InetAddress.getLoopbackAddress());
+    _pool = Executors.newFixedThreadPool(nthread,daemons("worker"));
+    _accepter = daemons("accept").newThread(new Runnable() {
+      public void run() {
+        accept();
+      }
+    });
+    _dispatcher = daemons("dispatch").newThread(new Runnable() {
+      public void run() {
+        dispatch();
+      }
+    });
+    _accepter.start();
+    _dispatcher.start();
+  }
+
+  /**
+   * Returns the port on which this server accepts connections.
+   * @return the port.
+   */
+  public int getPort() {
+    return _socket.getLocalPort();
+  }
+
+  /**
+   * Sets the half-width of the window used to balance amplitudes of
+   * sections loaded later.
+   * @param sigma the half-width, in samples.
+   */
+  public void setGainSigma(float sigma) {
+    _sigma = sigma;
+  }
+
+  /**
+   * Returns the cache of refined boundaries shared by all clients.
+   * @return the cache.
+   */
+  public RefineCache getRefineCache() {
+    return _cache;
+  }
+
+  /**
+   * Stops accepting connections and closes connections open. Refine
+   * requests not yet completed fail.
+   */
+  public void close() throws IOException {
+    _closed = true;
+    _socket.close();
+    _dispatcher.interrupt();
+    for (Runnable r:_pool.shutdownNow()) {
+      if (r instanceof RefineTask) {
+        fail(((RefineTask)r).group);
+      } else if (r instanceof Future) {
+        ((Future<?>)r).cancel(false); // a load
+      }
+    }
+    failQueued();
+    synchronized (_clients) {
+      for (Socket s:_clients)
+        s.close();
+    }
+  }
+
+  /**
+   * Runs a server from the command line. Usage:
+   * <pre>
+   *   sbp.PickServer2 [-port port] [-threads n] [-sigma sigma]
+   * </pre>
+   * @param args command-line arguments.
+   */
+  public static void main(String[] args) throws IOException {
+    int port = PORT;
+    int nthread = Runtime.getRuntime().availableProcessors();
+    float sigma = 50f;
+    for (int i=0; i<args.length; ++i) {
+      if (args[i].equals("-port"))         port = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-threads")) nthread = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-sigma"))   sigma = Float.parseFloat(args[++i]);
+      else {
+        System.err.println(
+          "usage: sbp.PickServer2 [-port port] [-threads n] [-sigma sigma]");
+        System.exit(255);
+      }
+    }
+    PickServer2 ps = new PickServer2(port,nthread);
+    ps.setGainSigma(sigma);
+    System.out.println("PickServer2: listening on port "+ps.getPort());
+    try {
+      ps._accepter.join();
+    } catch (InterruptedException e) {
+      ps.close();
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // package
+
+  static final int LOAD = 1; // op codes
+  static final int REFINE = 2;
+  static final int UNLOAD = 3;
+  static final int OK = 0; // status codes
+  static final int ERROR = 1;
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int BATCH = 64; // maximum refine requests per batch
+
+  private ServerSocket _socket;
+  private ExecutorService _pool;
+  private Thread _accepter,_dispatcher;
+  private volatile boolean _closed;
+  private volatile float _sigma = 50f;
+  private RefineCache _cache = new RefineCache(64L<<20);
+  private AtomicInteger _ids = new AtomicInteger();
+  private ConcurrentHashMap<String,Future<Section>> _loads =
+    new ConcurrentHashMap<String,Future<Section>>();
+  private ConcurrentHashMap<Integer,Section> _sections =
+    new ConcurrentHashMap<Integer,Section>();
+  private LinkedBlockingQueue<Job> _jobs = new LinkedBlockingQueue<Job>();
+  private Set<Socket> _clients = new HashSet<Socket>();
+
+  // A section with its envelope.
+  private static class Section {
+    String key;
+    int id;
+    float[][] env;
+  }
+
+  // A refine request, completed by a worker.
+  private static class Job {
+    Section s;
+    int r,w;
+    float d,a;
+    float[] c1,c2;
+    float[][] xus;
+    Throwable error;
+    CountDownLatch done = new CountDownLatch(1);
+    boolean sameAs(Job j) {
+      return s==j.s && r==j.r && w==j.w && d==j.d && a==j.a &&
+        Arrays.equals(c1,j.c1) && Arrays.equals(c2,j.c2);
+    }
+  }
+
+  private static ThreadFactory daemons(final String name) {
+    return new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r,"PickServer2-"+name);
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  private void accept() {
+    while (!_closed) {
+      final Socket s;
+      try {
+        s = _socket.accept();
+        s.setTcpNoDelay(true);
+      } catch (IOException e) {
+        if (_closed) return;
+        continue;
+      }
+      synchronized (_clients) {
+        _clients.add(s);
+      }
+      daemons("client").newThread(new Runnable() {
+        public void run() {
+          serve(s);
+        }
+      }).start();
+    }
+  }
+
+  // Reads requests from one client and writes responses, until the
+  // client closes its connection.
+  private void serve(Socket s) {
+    try {
+      DataInputStream dis = new DataInputStream(
+        new BufferedInputStream(s.getInputStream()));
+      DataOutputStream dos = new DataOutputStream(
+        new BufferedOutputStream(s.getOutputStream()));
+      while (true) {
+        int op;
+        try {
+          op = dis.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        try {
+          if (op==LOAD) {
+            String name = dis.readUTF();
+            int n1 = dis.readInt();
+            int n2 = dis.readInt();
+            Section sec = load(name,n1,n2);
+            dos.writeInt(OK);
+            dos.writeInt(sec.id);
+          } else if (op==REFINE) {
+            Job job = readJob(dis);
+            _jobs.add(job);
+            if (_closed) failQueued();
+            job.done.await();
+            if (job.error!=null)
+              throw new ExecutionException(job.error);
+            int np = job.xus[0].length;
+            dos.writeInt(OK);
+            dos.writeInt(np);
+            for (int i=0; i<4; ++i)
+              for (int ip=0; ip<np; ++ip)
+                dos.writeFloat(job.xus[i][ip]);
+          } else if (op==UNLOAD) {
+            unload(dis.readInt());
+            dos.writeInt(OK);
+          } else {
+            throw new IOException("unknown op code "+op);
+          }
+        } catch (IOException e) {
+          throw e; // from the connection
+        } catch (InterruptedException e) {
+          return;
+        } catch (ExecutionException e) {
+          dos.writeInt(ERROR);
+          dos.writeUTF(String.valueOf(e.getCause()));
+        } catch (Throwable e) {
+          dos.writeInt(ERROR);
+          dos.writeUTF(String.valueOf(e));
+        }
+        dos.flush();
+      }
+    } catch (IOException e) {
+      // client is gone or sent a malformed request
+    } finally {
+      synchronized (_clients) {
+        _clients.remove(s);
+      }
+      try {
+        s.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  private Job readJob(DataInputStream dis) throws IOException {
+    Job job = new Job();
+    int id = dis.readInt();
+    job.r = dis.readInt();
+    job.d = dis.readFloat();
+    job.w = dis.readInt();
+    job.a = dis.readFloat();
+    int nc = dis.readInt();
+    if (nc<3 || nc>(1<<20))
+      throw new IOException("bad number of control points "+nc);
+    job.c1 = new float[nc];
+    job.c2 = new float[nc];
+    for (int ic=0; ic<nc; ++ic) job.c1[ic] = dis.readFloat();
+    for (int ic=0; ic<nc; ++ic) job.c2[ic] = dis.readFloat();
+    job.s = _sections.get(id);
+    if (job.s==null)
+      throw new IllegalArgumentException("no section "+id);
+    return job;
+  }
+
+  // Returns a loaded section, loading it on a worker if necessary. Clients
+  // that request the same section at the same time wait for one load.
+  private Section load(final String name, final int n1, final int n2)
+    throws ExecutionException, InterruptedException
+  {
+    final float sigma = _sigma;
+    final String key = name+":"+n1+":"+n2+":"+sigma;
+    FutureTask<Section> task = new FutureTask<Section>(
+      new Callable<Section>() {
+        public Section call() throws IOException {
+          float[][] fx;
+          if (name.endsWith(".sgy") || name.endsWith(".segy")) {
+            SegyReader sr = new SegyReader(name);
+            try {
+              fx = sr.readSection();
+            } finally {
+              sr.close();
+            }
+          } else {
+            fx = BatchPicker2.readImage(n1,n2,name);
+          }
+          SaltPicker2 sp = new SaltPicker2();
+          Section s = new Section();
+          s.key = key;
+          s.env = sp.applyForInsAmp(sigma,fx,null);
+          s.id = _ids.incrementAndGet();
+          _sections.put(s.id,s);
+          return s;
+        }
+      });
+    Future<Section> f = _loads.putIfAbsent(key,task);
+    if (f==null) {
+      f = task;
+      _pool.execute(task);
+    }
+    try {
+      return f.get();
+    } catch (ExecutionException e) {
+      _loads.remove(key,f);
+      throw e;
+    }
+  }
+
+  private void unload(int id) {
+    Section s = _sections.remove(id);
+    if (s!=null) {
+      _loads.remove(s.key);
+      _cache.removeImage(s.env);
+    }
+  }
+
+  // Takes queued refine requests in batches, and submits one task for
+  // each group of identical requests.
+  private void dispatch() {
+    ArrayList<Job> batch = new ArrayList<Job>();
+    try {
+      while (true) {
+        batch.add(_jobs.take());
+        _jobs.drainTo(batch,BATCH-1);
+        while (!batch.isEmpty()) {
+          final ArrayList<Job> group = new ArrayList<Job>();
+          Job first = batch.get(0);
+          for (Iterator<Job> it=batch.iterator(); it.hasNext();) {
+            Job j = it.next();
+            if (first.sameAs(j)) {
+              group.add(j);
+              it.remove();
+            }
+          }
+          try {
+            _pool.execute(new RefineTask(group));
+          } catch (RejectedExecutionException e) {
+            fail(group); // closed
+            fail(batch);
+            return;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      fail(batch); // closed
+    } finally {
+      failQueued();
+    }
+  }
+
+  // Refines a group of identical requests.
+  private class RefineTask implements Runnable {
+    ArrayList<Job> group;
+    RefineTask(ArrayList<Job> group) {
+      this.group = group;
+    }
+    public void run() {
+      refine(group);
+    }
+  }
+
+  // Completes jobs with an error, because the server is closed.
+  private static void fail(List<Job> jobs) {
+    Throwable error = new IllegalStateException("server closed");
+    for (Job j:jobs) {
+      j.error = error;
+      j.done.countDown();
+    }
+  }
+
+  // Fails all queued jobs, after the server is closed.
+  private void failQueued() {
+    ArrayList<Job> jobs = new ArrayList<Job>();
+    _jobs.drainTo(jobs);
+    fail(jobs);
+  }
+
+  private void refine(ArrayList<Job> group) {
+    Job job = group.get(0);
+    float[][] xus = null;
+    Throwable error = null;
+    try {
+      float[] c1 = Arrays.copyOf(job.c1,job.c1.length+1);
+      float[] c2 = Arrays.copyOf(job.c2,job.c2.length+1);
+      c1[c1.length-1] = c1[0]; // closed polygon
+      c2[c2.length-1] = c2[0];
+      SaltPicker2 sp = new SaltPicker2();
+      sp.setRefineCache(_cache);
+      sp.initialBoundary(1,c1,c2);
+      sp.refine(job.r,job.d,job.w,job.a,job.s.env);
+      float[][] xs = sp.getBoundary();
+      float[][] us = sp.getNormals();
+      xus = new float[][]{xs[0],xs[1],us[0],us[1]};
+    } catch (Throwable e) {
+      error = e;
+    }
+    for (Job j:group) {
+      j.xus = xus;
+      j.error = error;
+      j.done.countDown();
+    }
+  }
+}
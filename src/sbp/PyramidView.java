@@ -0,0 +1,171 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import edu.mines.jtk.awt.ColorMap;
+import edu.mines.jtk.mosaic.*;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * A tiled view of a large 2D image, painted from an image pyramid.
+ * <p>
+ * When painted, this view chooses the coarsest pyramid level with at
+ * least one sample per screen pixel, and draws only the tiles of that
+ * level that intersect the area being painted. Images for recently drawn
+ * tiles are cached, so that panning and zooming costs do not depend on
+ * the size of the image. Axis 1 is down and axis 2 is right.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class PyramidView extends TiledView {
+
+  /**
+   * Constructs a view of the image in a pyramid.
+   * @param pyramid the image pyramid.
+   */
+  public PyramidView(ImagePyramid2 pyramid) {
+    _pyramid = pyramid;
+    _n1 = pyramid.getN1(0);
+    _n2 = pyramid.getN2(0);
+
+    // Default clips from the one tile of the coarsest level, which is
+    // built from a bounded sample of at most tile-size traces, so that no
+    // other tiles are built until painted.
+    float[][] t = pyramid.getTile(pyramid.countLevels()-1,0,0);
+    _clipMin = min(t);
+    _clipMax = max(t);
+    if (_clipMin==_clipMax) _clipMax = _clipMin+1f;
+    updateBestProjectors();
+  }
+
+  /**
+   * Sets the clips; sample values outside are painted with end colors.
+   * @param clipMin the sample value painted with the first color.
+   * @param clipMax the sample value painted with the last color.
+   */
+  public void setClips(float clipMin, float clipMax) {
+    if (clipMin!=_clipMin || clipMax!=_clipMax) {
+      _clipMin = clipMin;
+      _clipMax = clipMax;
+      _images.clear();
+      repaint();
+    }
+  }
+
+  /**
+   * Sets the color model for this view.
+   * @param colorModel the color model.
+   */
+  public void setColorModel(IndexColorModel colorModel) {
+    _colorModel = colorModel;
+    _images.clear();
+    repaint();
+  }
+
+  public void paint(Graphics2D g2d) {
+    Projector hp = getHorizontalProjector();
+    Projector vp = getVerticalProjector();
+    Transcaler ts = getTranscaler();
+
+    // Coarsest level with at least one sample per pixel.
+    double p2 = abs(ts.x(hp.u(_n2))-ts.x(hp.u(0)))/(double)_n2;
+    double p1 = abs(ts.y(vp.u(_n1))-ts.y(vp.u(0)))/(double)_n1;
+    double sp = 1.0/max(min(p1,p2),1.0e-6);
+    int level = 0;
+    while (level+1<_pyramid.countLevels() && (1<<(level+1))<=sp)
+      ++level;
+    int scale = 1<<level;
+    int size = _pyramid.getTileSize();
+
+    // Sample ranges that are visible in the area being painted.
+    Rectangle r = g2d.getClipBounds();
+    if (r==null)
+      r = new Rectangle(0,0,getTile().getWidth(),getTile().getHeight());
+    double x2a = hp.v(ts.x(r.x)), x2b = hp.v(ts.x(r.x+r.width));
+    double x1a = vp.v(ts.y(r.y)), x1b = vp.v(ts.y(r.y+r.height));
+    int n1 = _pyramid.getN1(level), n2 = _pyramid.getN2(level);
+    int k1b = tileIndex(min(x1a,x1b),scale,size,n1);
+    int k1e = tileIndex(max(x1a,x1b),scale,size,n1);
+    int k2b = tileIndex(min(x2a,x2b),scale,size,n2);
+    int k2e = tileIndex(max(x2a,x2b),scale,size,n2);
+
+    Graphics2D gi = (Graphics2D)g2d.create();
+    gi.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+    for (int k2=k2b; k2<=k2e; ++k2) {
+      for (int k1=k1b; k1<=k1e; ++k1) {
+        BufferedImage bi = getImage(level,k1,k2);
+        double x2f = k2*size*scale-0.5;
+        double x1f = k1*size*scale-0.5;
+        double x2l = min(x2f+bi.getWidth()*scale,_n2-0.5);
+        double x1l = min(x1f+bi.getHeight()*scale,_n1-0.5);
+        int xf = ts.x(hp.u(x2f)), xl = ts.x(hp.u(x2l));
+        int yf = ts.y(vp.u(x1f)), yl = ts.y(vp.u(x1l));
+        gi.drawImage(bi,min(xf,xl),min(yf,yl),abs(xl-xf),abs(yl-yf),null);
+      }
+    }
+    gi.dispose();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int MAX_IMAGES = 512;
+
+  private ImagePyramid2 _pyramid;
+  private int _n1,_n2;
+  private float _clipMin,_clipMax;
+  private IndexColorModel _colorModel = ColorMap.GRAY;
+  private LinkedHashMap<Long,BufferedImage> _images =
+    new LinkedHashMap<Long,BufferedImage>(64,0.75f,true) {
+      protected boolean removeEldestEntry(Map.Entry<Long,BufferedImage> e) {
+        return size()>MAX_IMAGES;
+      }
+    };
+
+  private void updateBestProjectors() {
+    Projector bhp = new Projector(-0.5,_n2-0.5);
+    Projector bvp = new Projector(-0.5,_n1-0.5);
+    setBestProjectors(bhp,bvp);
+  }
+
+  private static int tileIndex(double x, int scale, int size, int n) {
+    int i = (int)floor((x+0.5)/scale);
+    i = max(0,min(n-1,i));
+    return i/size;
+  }
+
+  private BufferedImage getImage(int level, int k1, int k2) {
+    Long key = ((long)level<<56)|((long)k2<<28)|k1;
+    BufferedImage bi = _images.get(key);
+    if (bi==null) {
+      float[][] t = _pyramid.getTile(level,k1,k2);
+      int m1 = t[0].length, m2 = t.length;
+      byte[] b = new byte[m1*m2];
+      float scale = 255f/(_clipMax-_clipMin);
+      for (int i2=0; i2<m2; ++i2) {
+        float[] ti = t[i2];
+        for (int i1=0; i1<m1; ++i1) {
+          float v = (ti[i1]-_clipMin)*scale;
+          v = (v<0f)?0f:(v>255f)?255f:v;
+          b[i2+i1*m2] = (byte)(int)(v+0.5f);
+        }
+      }
+      DataBufferByte db = new DataBufferByte(b,b.length);
+      WritableRaster wr = Raster.createInterleavedRaster(
+        db,m2,m1,m2,1,new int[]{0},null);
+      bi = new BufferedImage(_colorModel,wr,false,null);
+      _images.put(key,bi);
+    }
+    return bi;
+  }
+}
@@ -0,0 +1,201 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of refined salt boundaries.
+ * <p>
+ * Results are keyed by the boundary and its normal vectors before
+ * refining, which for interactive picking are determined by the control
+ * polygon, by the refine parameters {r,d,w,a}, by modes of picking, such
+ * as closed paths or segments, and by the identity of the image.
+ * Boundaries are compared exactly, so that a hit returns what refining
+ * would compute. When the cached boundaries and keys exceed a maximum
+ * number of bytes, the least recently used are evicted. Keys reference
+ * their images, which therefore remain in memory while cached, or until
+ * boundaries for an image are removed. A cache may be shared by multiple
+ * threads.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class RefineCache {
+
+  /**
+   * Constructs a cache with a maximum of 16 MB.
+   */
+  public RefineCache() {
+    this(16L<<20);
+  }
+
+  /**
+   * Constructs a cache.
+   * @param maxBytes maximum number of bytes in cached boundaries and keys.
+   */
+  public RefineCache(long maxBytes) {
+    _maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns the number of lookups that found a refined boundary.
+   * @return the number of hits.
+   */
+  public synchronized long getHitCount() {
+    return _hits;
+  }
+
+  /**
+   * Returns the number of lookups that did not find a refined boundary.
+   * @return the number of misses.
+   */
+  public synchronized long getMissCount() {
+    return _misses;
+  }
+
+  /**
+   * Returns the number of cached boundaries.
+   * @return the number of boundaries.
+   */
+  public synchronized int size() {
+    return _map.size();
+  }
+
+  /**
+   * Removes all cached boundaries; hit and miss counts are unchanged.
+   */
+  public synchronized void clear() {
+    _map.clear();
+    _bytes = 0L;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // package
+
+  /**
+   * Returns a key for the specified boundary before refining, parameters,
+   * modes of picking, such as closed paths or segments, and image.
+   * Boundary coordinates, normal vectors and modes are copied.
+   */
+  static Key key(
+    float[][] xus, int r, float d, int w, float a, int[] modes,
+    Object image)
+  {
+    return new Key(xus,r,d,w,a,modes,image);
+  }
+
+  /**
+   * Returns a copy of the refined boundary {x1,x2,u1,u2} for a key, or
+   * null, if not cached.
+   */
+  synchronized float[][] get(Key key) {
+    float[][] xus = _map.get(key);
+    if (xus==null) {
+      ++_misses;
+      return null;
+    }
+    ++_hits;
+    return copy(xus);
+  }
+
+  /**
+   * Caches a copy of the refined boundary {x1,x2,u1,u2} for a key.
+   */
+  synchronized void put(Key key, float[][] xus) {
+    float[][] old = _map.put(key,copy(xus));
+    if (old!=null)
+      _bytes -= bytes(key,old);
+    _bytes += bytes(key,xus);
+    while (_bytes>_maxBytes && !_map.isEmpty()) {
+      Map.Entry<Key,float[][]> e = _map.entrySet().iterator().next();
+      _bytes -= bytes(e.getKey(),e.getValue());
+      _map.remove(e.getKey());
+    }
+  }
+
+  /**
+   * Removes cached boundaries refined with an image, so that keys no
+   * longer reference that image.
+   */
+  synchronized void removeImage(Object image) {
+    Iterator<Map.Entry<Key,float[][]>> it = _map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Key,float[][]> e = it.next();
+      if (e.getKey()._image==image) {
+        _bytes -= bytes(e.getKey(),e.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  static class Key {
+    private float[] _x1,_x2,_u1,_u2;
+    private int _r,_w;
+    private float _d,_a;
+    private int[] _modes;
+    private Object _image;
+    private int _hash;
+    private Key(
+      float[][] xus, int r, float d, int w, float a, int[] modes,
+      Object image)
+    {
+      _x1 = xus[0].clone();
+      _x2 = xus[1].clone();
+      _u1 = xus[2].clone();
+      _u2 = xus[3].clone();
+      _r = r; _d = d;
+      _w = w; _a = a;
+      _modes = modes.clone();
+      _image = image;
+      int h = Arrays.hashCode(_x1);
+      h = 31*h+Arrays.hashCode(_x2);
+      h = 31*h+Arrays.hashCode(_u1);
+      h = 31*h+Arrays.hashCode(_u2);
+      h = 31*h+r;
+      h = 31*h+Float.floatToIntBits(d);
+      h = 31*h+w;
+      h = 31*h+Float.floatToIntBits(a);
+      h = 31*h+Arrays.hashCode(modes);
+      _hash = 31*h+System.identityHashCode(image);
+    }
+    public int hashCode() {
+      return _hash;
+    }
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key)o;
+      return _hash==k._hash && _image==k._image &&
+        _r==k._r && _w==k._w && _d==k._d && _a==k._a &&
+        Arrays.equals(_modes,k._modes) &&
+        Arrays.equals(_x1,k._x1) && Arrays.equals(_x2,k._x2) &&
+        Arrays.equals(_u1,k._u1) && Arrays.equals(_u2,k._u2);
+    }
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private long _maxBytes,_bytes;
+  private long _hits,_misses;
+  private LinkedHashMap<Key,float[][]> _map =
+    new LinkedHashMap<Key,float[][]>(64,0.75f,true);
+
+  private static long bytes(Key key, float[][] xus) {
+    long nk = key._x1.length+key._x2.length+key._u1.length+key._u2.length;
+    return 4L*(nk+xus.length*xus[0].length);
+  }
+
+  private static float[][] copy(float[][] xus) {
+    float[][] c = new float[xus.length][];
+    for (int i=0; i<xus.length; ++i)
+      c[i] = xus[i].clone();
+    return c;
+  }
+}
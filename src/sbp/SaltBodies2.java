@@ -0,0 +1,199 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.util.ArrayList;
+
+import edu.mines.jtk.util.*;
+
+/**
+ * Multiple independent salt bodies in one 2D section.
+ * <p>
+ * Each body has its own {@link SaltPicker2}, and so its own boundary,
+ * band samples and optimal path workspace. Bodies are refined in
+ * parallel; the image used for refining is shared and only read.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class SaltBodies2 {
+
+  /**
+   * Adds a new body with no boundary.
+   * @return the index of the new body.
+   */
+  public int addBody() {
+    SaltPicker2 picker = new SaltPicker2();
+    picker.setRefineCache(_cache);
+    picker.setScheduler(_scheduler);
+    _pickers.add(picker);
+    return _pickers.size()-1;
+  }
+
+  /**
+   * Inserts a body with the specified picker, which is given the cache
+   * and scheduler of these bodies.
+   * @param ib the index of the new body.
+   * @param picker the picker.
+   */
+  public void insertBody(int ib, SaltPicker2 picker) {
+    picker.setRefineCache(_cache);
+    picker.setScheduler(_scheduler);
+    _pickers.add(ib,picker);
+  }
+
+  /**
+   * Removes the body with specified index.
+   * @param ib the body index.
+   */
+  public void removeBody(int ib) {
+    _pickers.remove(ib);
+  }
+
+  /**
+   * Removes all bodies.
+   */
+  public void clear() {
+    _pickers.clear();
+  }
+
+  /**
+   * Returns the number of bodies.
+   * @return the number of bodies.
+   */
+  public int countBodies() {
+    return _pickers.size();
+  }
+
+  /**
+   * Returns the picker for the body with specified index.
+   * @param ib the body index.
+   * @return the picker.
+   */
+  public SaltPicker2 getPicker(int ib) {
+    return _pickers.get(ib);
+  }
+
+  /**
+   * Replaces the picker for the body with specified index. The picker is
+   * given the cache and scheduler of these bodies.
+   * @param ib the body index.
+   * @param picker the picker.
+   */
+  public void setPicker(int ib, SaltPicker2 picker) {
+    picker.setRefineCache(_cache);
+    picker.setScheduler(_scheduler);
+    _pickers.set(ib,picker);
+  }
+
+  /**
+   * Sets a cache of refined boundaries for all bodies, including bodies
+   * added later. 
+   * @param cache the cache, which is shared by bodies; null, for none.
+   */
+  public void setRefineCache(RefineCache cache) {
+    _cache = cache;
+    for (SaltPicker2 picker:_pickers)
+      picker.setRefineCache(cache);
+  }
+
+  /**
+   * Sets the scheduler for parallel loops over bodies, and for loops of
+   * all bodies, including bodies added later. The stage of loops over
+   * bodies is named bodies.
+   * @param scheduler the scheduler; null, for {@link Parallel}.
+   */
+  public void setScheduler(LoopScheduler scheduler) {
+    _scheduler = scheduler;
+    for (SaltPicker2 picker:_pickers)
+      picker.setScheduler(scheduler);
+  }
+
+  /**
+   * Returns boundaries of all bodies.
+   * @return array {x1s,x2s} of boundary coordinates, one per body.
+   */
+  public float[][][] getBoundaries() {
+    int nb = _pickers.size();
+    float[][] x1s = new float[nb][];
+    float[][] x2s = new float[nb][];
+    for (int ib=0; ib<nb; ++ib) {
+      float[][] xs = _pickers.get(ib).getBoundary();
+      x1s[ib] = xs[0];
+      x2s[ib] = xs[1];
+    }
+    return new float[][][]{x1s,x2s};
+  }
+
+  /**
+   * Refines the boundaries of all bodies in parallel.
+   * Bodies without boundaries are ignored.
+   * @param r half-width, in samples, of the band around boundaries.
+   * @param d sampling interval of the band normal to boundaries.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   * @param fx array[n2][n1] of image samples, shared by all bodies.
+   */
+  public void refine(
+    int r, float d, int w, float a, float[][] fx)
+  {
+    refine(r,d,w,a,fx,null);
+  }
+
+  /**
+   * Refines the boundaries of all bodies in parallel, with a monitor.
+   * The monitor is shared by all bodies; if it cancels picking, a 
+   * CancellationException is thrown.
+   * @param r half-width, in samples, of the band around boundaries.
+   * @param d sampling interval of the band normal to boundaries.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   * @param fx array[n2][n1] of image samples, shared by all bodies.
+   * @param monitor a thread-safe monitor; null, for none.
+   */
+  public void refine(
+    final int r, final float d, final int w, final float a,
+    final float[][] fx, final OptimalPathPicker.Monitor monitor)
+  {
+    final SaltPicker2[] sps = _pickers.toArray(new SaltPicker2[0]);
+    LoopScheduler.loop(_scheduler,"bodies",sps.length,new Parallel.LoopInt() {
+      public void compute(int ib) {
+        if (sps[ib].hasBoundary())
+          sps[ib].refine(r,d,w,a,fx,monitor);
+      }
+    });
+  }
+
+  /**
+   * Refines the boundaries of all bodies in parallel, with an image read
+   * on demand. 
+   * @param r half-width, in samples, of the band around boundaries.
+   * @param d sampling interval of the band normal to boundaries.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   * @param sr reader for the image, shared by all bodies.
+   * @param monitor a thread-safe monitor; null, for none.
+   */
+  public void refine(
+    final int r, final float d, final int w, final float a,
+    final SectionReader sr, final OptimalPathPicker.Monitor monitor)
+  {
+    final SaltPicker2[] sps = _pickers.toArray(new SaltPicker2[0]);
+    LoopScheduler.loop(_scheduler,"bodies",sps.length,new Parallel.LoopInt() {
+      public void compute(int ib) {
+        if (sps[ib].hasBoundary())
+          sps[ib].refine(r,d,w,a,sr,monitor);
+      }
+    });
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private ArrayList<SaltPicker2> _pickers = new ArrayList<SaltPicker2>();
+  private RefineCache _cache;
+  private LoopScheduler _scheduler;
+}
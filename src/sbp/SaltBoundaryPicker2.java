@@ -11,10 +11,11 @@ import java.util.*;
 import java.awt.event.*;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.*;
 
 import edu.mines.jtk.awt.*;
-import edu.mines.jtk.dsp.RecursiveExponentialFilter;
 import edu.mines.jtk.io.ArrayInputStream;
 import edu.mines.jtk.io.ArrayOutputStream;
 import edu.mines.jtk.mosaic.*;
@@ -27,16 +28,48 @@ import static edu.mines.jtk.util.ArrayMath.*;
  */
 public class SaltBoundaryPicker2 {
 
+  /**
+   * Constructs a picker for an image in memory, which is first written to
+   * a temporary section file.
+   * @param image array[n2][n1] of image samples.
+   */
   public SaltBoundaryPicker2(float[][] image) {
-    _n1 = image[0].length;
-    _n2 = image.length;
-    _image = image;
-    _picker = new SaltPicker2();
-    _env = _picker.applyForInsAmp(image);
+    this(toSection(image));
+  }
+
+  /**
+   * Constructs a picker for a section read on demand. Tiles displayed,
+   * instantaneous amplitudes and bands sampled for refining are read from
+   * the section, which is never read into memory entirely.
+   * @param sr reader for the section; referenced, not copied.
+   */
+  public SaltBoundaryPicker2(SectionReader sr) {
+    _n1 = sr.getN1();
+    _n2 = sr.getN2();
+    _sr = sr;
+    _bodies = new SaltBodies2();
+    _bodies.setRefineCache(_refineCache);
+    _ib = _bodies.addBody();
+    _points.add(new ControlPoints2(_n1,_n2));
+    _history = new PickHistory2(_n1,_n2,_bodies,_points);
+    _history.addListener(new PickHistory2.Listener() {
+      public void bodiesChanged(int ib, int[] ibs) {
+        if (_journal!=null) _journal.record(ib,ibs);
+      }
+    });
+    // Instantaneous amplitudes are computed, into a temporary section
+    // file, only when first needed, so that opening a section reads only
+    // the tiles displayed.
+    _env = new FutureTask<SectionReader>(new Callable<SectionReader>() {
+      public SectionReader call() throws IOException {
+        return new SaltPicker2().applyForInsAmp(_sr,tempFile("env"));
+      }
+    });
 
     int fontSize = 16;
-    int width = _n2;
-    int height = _n1;
+    Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+    int width = min(_n2,screen.width);
+    int height = min(_n1,screen.height);
 
     // Plot panel.
     PlotPanel.Orientation ppo = PlotPanel.Orientation.X1DOWN_X2RIGHT;
@@ -44,37 +77,30 @@ public class SaltBoundaryPicker2 {
     _panel = new PlotPanel(1,1,ppo,ppap);
     _panel.setHLimits(0,_n2-1);
     _panel.setVLimits(0,_n1-1);
-    // Image view.
-    _imageView = _panel.addPixels(_image);
-    _imageView.setInterpolation(PixelsView.Interpolation.NEAREST);
+    // Image view, painted from a pyramid so that only the visible tiles,
+    // at a resolution that matches the zoom, are drawn.
+    _imageView = new PyramidView(new ImagePyramid2(_sr));
+    _panel.getTile(0,0).addTiledView(_imageView);
 
-    // Salt boundary view on top of image view.
-    float[][] xs = _picker.getBoundary();
+    // Salt boundary views, one segment per body, on top of image view.
+    float[][][] xs = _bodies.getBoundaries();
     _boundaryView = _panel.addPoints(xs[0],xs[1]);
     _boundaryView.setLineColor(Color.RED);
     _boundaryView.setLineWidth(3f);
 
-    float[] p1s,p2s;
-    int np = _points.size(); 
-    if (np==0) {
-      p1s = new float[]{-1};
-      p2s = new float[]{-1};
-    } else {
-      p1s = new float[np];
-      p2s = new float[np];
-      for (int ip=0; ip<np; ++ip) {
-        int[] ts = _points.get(ip);
-        p1s[ip] = ts[0];
-        p2s[ip] = ts[1];
-      }
-    }
-    _pointsView = _panel.addPoints(p1s,p2s);
+    float[][][] ps = getControlPoints();
+    _pointsView = _panel.addPoints(ps[0],ps[1]);
     _pointsView.setLineStyle(PointsView.Line.NONE);
     _pointsView.setMarkStyle(PointsView.Mark.HOLLOW_CIRCLE);
     _pointsView.setMarkColor(Color.YELLOW);
     _pointsView.setMarkSize(12f);
     _pointsView.setLineWidth(3f);
 
+    // Live wire view.
+    _wireView = _panel.addPoints(new float[]{-1},new float[]{-1});
+    _wireView.setLineColor(Color.GREEN);
+    _wireView.setLineWidth(2f);
+
     // Plot frame.
     _frame = new PlotFrame(_panel);
     _frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
@@ -96,24 +122,411 @@ public class SaltBoundaryPicker2 {
     _paintView.setClips(_valueMin,_valueMax);
   }
 
+  /**
+   * Recovers bodies recorded in a journal, if it exists, and then records
+   * all edits in that journal, so that they can be recovered after a 
+   * crash. Any previous journal is closed.
+   * @param fileName the journal file name; null, for no journal.
+   */
+  public void setJournal(String fileName) {
+    if (_journal!=null) {
+      Runtime.getRuntime().removeShutdownHook(_journalHook);
+      _journalHook = null;
+      try {
+        _journal.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      } finally {
+        _journal = null;
+      }
+    }
+    if (fileName==null) return;
+    int ib = SessionJournal.replay(fileName,_n1,_n2,_bodies,_points);
+    if (ib>=0) {
+      _ib = min(ib,_bodies.countBodies()-1);
+      _history.clear();
+      updateViews();
+    }
+    final SessionJournal journal = 
+      new SessionJournal(fileName,_n1,_n2,_bodies,_points,_ib);
+    _journalHook = new Thread() {
+      public void run() {
+        try {
+          journal.close();
+        } catch (IOException e) {
+          // nothing more can be done while exiting
+        }
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(_journalHook);
+    _journal = journal;
+  }
+
   ///////////////////////////////////////////////////////////////////////////
   // private
 
 
   private int _n1,_n2;
-  private float[][] _image;
-  private float[][] _env;
+  private SectionReader _sr; // the section
+  private FutureTask<SectionReader> _env; // instantaneous amplitudes
   private float _valueMin,_valueMax;
-  private SaltPicker2 _picker;
+  private SaltBodies2 _bodies; // salt bodies picked in this section
+  private int _ib; // index of the body currently being picked
 
   private PlotPanel _panel;
   private PlotFrame _frame;
-  private PixelsView _imageView;
+  private PyramidView _imageView;
   private PixelsView _paintView;
   private PointsView _boundaryView;
   private PointsView _pointsView;
-  private ArrayList<int[]> _points = new ArrayList<int[]>();
+  private ArrayList<ControlPoints2> _points = // control points per body
+    new ArrayList<ControlPoints2>();
+  private PickHistory2 _history; // edits of bodies and points
+  private SessionJournal _journal; // edits recorded for recovery, if any
+  private Thread _journalHook; // closes the journal on exit
+
+  // Returns control points {p1s,p2s} of all bodies.
+  private float[][][] getControlPoints() {
+    int nb = _points.size();
+    float[][] p1s = new float[nb][];
+    float[][] p2s = new float[nb][];
+    for (int ib=0; ib<nb; ++ib) {
+      float[][] ps = getControlPoints(ib);
+      p1s[ib] = ps[0];
+      p2s[ib] = ps[1];
+    }
+    return new float[][][]{p1s,p2s};
+  }
+
+  // Returns control points {p1s,p2s} of the body with specified index.
+  // The returned arrays must not be modified.
+  private float[][] getControlPoints(int ib) {
+    ControlPoints2 points = _points.get(ib);
+    if (points.isEmpty()) 
+      return new float[][]{{-1},{-1}};
+    return points.getPoints();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // refining in background
+
+  // Only one refine runs at a time, in a worker thread, so that the event
+  // dispatch thread never waits for picking. A newer refine supersedes 
+  // any refine in progress, which is canceled when it next reports 
+  // progress. Results are shown only if not superseded.
+  private ExecutorService _refiner = Executors.newSingleThreadExecutor(
+    new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r,"SaltBoundaryPicker2-refine");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  private Future<?> _refineTask; // the latest refine submitted
+  private volatile int _refineId; // incremented for each refine
+  private RefineCache _refineCache = new RefineCache(); // shared by refines
+  private JProgressBar _progressBar;
+
+  // Cancels any refine in progress. Called on the EDT.
+  private void cancelRefine() {
+    ++_refineId;
+    if (_refineTask!=null) {
+      _refineTask.cancel(false);
+      _refineTask = null;
+    }
+    _progressBar.setValue(0);
+    _progressBar.setString("");
+  }
+
+  // Refines all bodies from their control points. Called on the EDT.
+  private void refineInBackground() {
+    refineInBackground(false);
+  }
+
+  // Refines bodies from their control points. A preview refines only the
+  // body being picked, with a narrower band, and does not show progress.
+  // Called on the EDT.
+  private void refineInBackground(final boolean preview) {
+    cancelRefine();
+    final int id = _refineId;
+    final int r = preview?PREVIEW_RADIUS:REFINE_RADIUS;
+
+    // New pickers, so that the pickers shown are not changed until done.
+    final SaltBodies2 bodies = new SaltBodies2();
+    bodies.setRefineCache(_refineCache);
+    int nb = preview?1:_bodies.countBodies();
+    final int[] ibs = new int[nb];
+    int nrow = 0;
+    for (int jb=0; jb<nb; ++jb) {
+      int ib = ibs[jb] = preview?_ib:jb;
+      SaltPicker2 picker = bodies.getPicker(bodies.addBody());
+      int np = _points.get(ib).size();
+      if (np<2) continue;
+      float[][] ps = getControlPoints(ib);
+      float[] i1s = copy(ps[0]);
+      float[] i2s = copy(ps[1]);
+      i1s[np-1] = i1s[0];
+      i2s[np-1] = i2s[0];
+      picker.initialBoundary(1,i1s,i2s);
+      if (picker.hasBoundary())
+        nrow += 2*max(0,picker.getBoundary()[0].length-2);
+    }
+    final int mrow = max(1,nrow);
+    final AtomicInteger krow = new AtomicInteger();
+    final OptimalPathPicker.Monitor monitor = new OptimalPathPicker.Monitor() {
+      public boolean rowComputed() {
+        if (id!=_refineId) return false;
+        int k = krow.incrementAndGet();
+        final int p = (int)(100L*k/mrow);
+        if (!preview && p!=(int)(100L*(k-1)/mrow)) {
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              if (id==_refineId) showProgress(p);
+            }
+          });
+        }
+        return true;
+      }
+    };
+    if (!preview) showProgress(0);
+    _refineTask = _refiner.submit(new Runnable() {
+      public void run() {
+        try {
+          bodies.refine(r,1,10,2,envelope(),monitor);
+        } catch (final Throwable e) {
+          if (id!=_refineId) return; // canceled
+          // A failure would be kept by the future, so it is shown here.
+          SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+              if (id!=_refineId) return; // superseded
+              _refineTask = null;
+              _progressBar.setValue(0);
+              _progressBar.setString("refine failed: "+e);
+            }
+          });
+          return;
+        }
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (id!=_refineId) return; // superseded
+            int nb = _bodies.countBodies();
+            if (!preview) _history.begin(_ib);
+            for (int jb=0; jb<ibs.length; ++jb) {
+              if (ibs[jb]>=nb) continue;
+              if (preview)
+                _bodies.setPicker(ibs[jb],bodies.getPicker(jb));
+              else
+                _history.setPicker(ibs[jb],bodies.getPicker(jb));
+            }
+            if (!preview) _history.end(_ib);
+            _refineTask = null;
+            if (!preview) {
+              _progressBar.setValue(100);
+              _progressBar.setString("done");
+            }
+            updateViews();
+          }
+        });
+      }
+    });
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // live preview
+
+  // While control points are being picked with live preview on, a cheap 
+  // preview refine runs after mouse events pause for a short delay. A 
+  // full refine runs when the mouse is released.
+  private static final int REFINE_RADIUS = 60;
+  private static final int PREVIEW_RADIUS = 20;
+  private static final int PREVIEW_DELAY = 25; // milliseconds
+  private boolean _preview; // true, if live preview is on
+  private javax.swing.Timer _previewTimer = 
+    new javax.swing.Timer(PREVIEW_DELAY,new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        refineInBackground(true);
+      }
+    });
+
+  private void showProgress(int p) {
+    _progressBar.setValue(p);
+    _progressBar.setString("refining "+p+"%");
+  }
+
+  // Updates the boundary and views of the body being picked after its
+  // control points have changed. Any refine in progress is canceled at 
+  // once, so that a result for the previous points is never shown.
+  private void controlPointsChanged() {
+    cancelRefine();
+    SaltPicker2 picker = _bodies.getPicker(_ib);
+    if (_points.get(_ib).isEmpty()) {
+      picker.clearBoundary();
+    } else {
+      float[][] ps = getControlPoints(_ib);
+      picker.initialBoundary(1,ps[0],ps[1]);
+    }
+    updateViews();
+    if (_preview)
+      _previewTimer.restart();
+  }
+
+  private void updateViews() {
+    float[][][] ps = getControlPoints();
+    _pointsView.set(ps[0],ps[1]);
+    float[][][] xs = _bodies.getBoundaries();
+    _boundaryView.set(xs[0],xs[1]);
+  }
+
+
+  // Undoes or redoes the most recent step of the edit history. Any refine 
+  // in progress is canceled, as its result would no longer apply.
+  private void undoOrRedo(boolean undo) {
+    cancelRefine();
+    stopWire();
+    _previewTimer.stop();
+    int ib = undo?_history.undo():_history.redo();
+    if (ib>=0) {
+      _ib = ib;
+      updateViews();
+    }
+  }
+
+
+  ///////////////////////////////////////////////////////////////////////////
+  // live wire
+
+  // Shortest paths from a seed are computed in a worker thread, and used
+  // on the EDT only after they are complete and still current. The same
+  // live wire is reused for every seed, to avoid reallocating its arrays.
+  private static final int WIRE_STEP = 5; // samples between added points
+  private ExecutorService _wirer = Executors.newSingleThreadExecutor(
+    new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r,"SaltBoundaryPicker2-livewire");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  private LiveWire2 _wireAll; // live wire, used only in the worker thread
+  private LiveWire2 _wire; // live wire with complete paths, if any
+  private int _wireId; // incremented for each seed
+  private PointsView _wireView;
+
+  // Returns instantaneous amplitudes, computing them in the calling thread
+  // if not already computed, or waiting for another thread to compute them.
+  // Never called on the EDT.
+  private SectionReader envelope() {
+    _env.run(); // does nothing if already run or running
+    try {
+      return _env.get();
+    } catch (InterruptedException e) {
+      throw new CancellationException();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  // Starts computing paths from a new seed. Called on the EDT. The live 
+  // wire is constructed in the worker thread, which may wait for the 
+  // instantaneous amplitudes to be computed.
+  private void startWire(final int i1, final int i2) {
+    final int id = ++_wireId;
+    _wire = null;
+    _wirer.submit(new Runnable() {
+      public void run() {
+        if (_wireAll==null) {
+          float[][] env = envelope().readAll(); // paths span the section
+          _wireAll = new LiveWire2(LiveWire2.weightsFromEnvelope(env));
+        }
+        final LiveWire2 lw = _wireAll;
+        lw.setSeed(i1,i2);
+        SwingUtilities.invokeLater(new Runnable() {
+          public void run() {
+            if (id==_wireId) _wire = lw;
+          }
+        });
+      }
+    });
+  }
 
+  // Stops the live wire. Called on the EDT.
+  private void stopWire() {
+    ++_wireId;
+    _wire = null;
+    _wireView.set(new float[]{-1},new float[]{-1});
+  }
+
+  private class LiveWireMode extends Mode {
+    public LiveWireMode(ModeManager modeManager) {
+      super(modeManager);
+      setName("Live wire");
+      setIcon(loadIcon(LiveWireMode.class,"resources/LiveWireIcon16.png"));
+      setMnemonicKey(KeyEvent.VK_L);
+      setAcceleratorKey(KeyStroke.getKeyStroke(KeyEvent.VK_L,0));
+      setShortDescription("Pick boundary with a live wire");
+    }
+    protected void setActive(Component component, boolean active) {
+      if (component instanceof Tile) {
+        if (active) {
+          component.addMouseListener(_ml);
+          component.addMouseMotionListener(_mml);
+        } else {
+          component.removeMouseListener(_ml);
+          component.removeMouseMotionListener(_mml);
+          stopWire();
+        }
+      }
+    }
+    private MouseListener _ml = new MouseAdapter() {
+      public void mousePressed(MouseEvent e) {
+        if (e.isControlDown() || e.isAltDown() || 
+            SwingUtilities.isRightMouseButton(e)) {
+          stopWire();
+          return;
+        }
+        int i1 = getIndex1(e);
+        int i2 = getIndex2(e);
+        if (i1<0 || i2<0) return;
+        _history.begin(_ib);
+        if (_wire!=null) { // add points along the wire
+          float[][] ps = _wire.getPath(i1,i2);
+          int np = ps[0].length;
+          for (int ip=WIRE_STEP; ip<np-1; ip+=WIRE_STEP)
+            _history.addPoint(_ib,ps[0][ip],ps[1][ip]);
+          if (np>1)
+            _history.addPoint(_ib,i1,i2);
+        } else {
+          _history.addPoint(_ib,i1,i2);
+        }
+        controlPointsChanged();
+        _history.end(_ib);
+        _wireView.set(new float[]{-1},new float[]{-1});
+        startWire(i1,i2);
+      }
+    };
+    private MouseMotionListener _mml = new MouseMotionAdapter() {
+      public void mouseMoved(MouseEvent e) {
+        int i1 = getIndex1(e);
+        int i2 = getIndex2(e);
+        if (_wire!=null && i1>=0 && i2>=0) {
+          float[][] ps = _wire.getPath(i1,i2);
+          _wireView.set(ps[0],ps[1]);
+        }
+      }
+    };
+    private int getIndex1(MouseEvent e) {
+      Tile tile = (Tile)e.getSource();
+      double x1 = tile.pixelToWorldVertical(e.getY());
+      int i1 = (int)(x1+0.5);
+      return (0<=i1 && i1<_n1)?i1:-1;
+    }
+    private int getIndex2(MouseEvent e) {
+      Tile tile = (Tile)e.getSource();
+      double x2 = tile.pixelToWorldHorizontal(e.getX());
+      int i2 = (int)(x2+0.5);
+      return (0<=i2 && i2<_n2)?i2:-1;
+    }
+  }
 
   private class PickMode extends Mode {
     public PickMode(ModeManager modeManager) {
@@ -140,9 +553,12 @@ public class SaltBoundaryPicker2 {
     private MouseListener _ml = new MouseAdapter() {;
       public void mousePressed(MouseEvent e) {
         _erasing = e.isControlDown() || e.isAltDown();
+        _history.begin(_ib); // all points of a drag are one step
         if (beginPick(e)) {
           _down = true;
           _tile.addMouseMotionListener(_mml);
+        } else {
+          _history.end(_ib);
         }
       }
       public void mouseReleased(MouseEvent e) {
@@ -150,6 +566,11 @@ public class SaltBoundaryPicker2 {
           _tile.removeMouseMotionListener(_mml);
           endPick(e);
           _down = false;
+          _history.end(_ib);
+          if (_preview) {
+            _previewTimer.stop();
+            refineInBackground();
+          }
         }
       }
     };
@@ -193,29 +614,15 @@ public class SaltBoundaryPicker2 {
           0<=i2 && i2<_n2) {
         _i1Pick = i1;
         _i2Pick = i2;
+        ControlPoints2 points = _points.get(_ib);
         if (_erasing) { // eraser size is 3x3 pixels
-          for (int j2=i2-1; j2<=i2+1; ++j2) {
-            for (int j1=i1-1; j1<=i1+1; ++j1) {
-               if (0<i1 && i1<_n1-1 &&
-                   0<i2 && i2<_n2-1) 
-                 _points.remove(new int[]{j1,j2});
-            }
-          }
+          int[] ids = points.findWithin(i1,i2,1.5f);
+          for (int id:ids)
+            _history.removePoint(_ib,id);
         } else {
-          _points.add(new int[]{i1,i2});
-        }
-        int np = _points.size();
-        float[] i1s = new float[np];
-        float[] i2s = new float[np];
-        for (int ip=0; ip<np; ++ip) {
-          int[] ts = _points.get(ip);
-          i1s[ip] = ts[0];
-          i2s[ip] = ts[1];
+          _history.addPoint(_ib,i1,i2);
         }
-        _pointsView.set(i1s,i2s);
-        _picker.initialBoundary(1,i1s,i2s);
-        float[][] xs = _picker.getBoundary();
-        _boundaryView.set(xs[0],xs[1]);
+        controlPointsChanged();
         return true;
       }
       return false;
@@ -229,21 +636,54 @@ public class SaltBoundaryPicker2 {
     ModeManager mm = _frame.getModeManager();
     TileZoomMode tzm = _frame.getTileZoomMode();
     PickMode pm = new PickMode(mm);
+    LiveWireMode lwm = new LiveWireMode(mm);
 
     // Menus.
     JMenu fileMenu = new JMenu("File");
     fileMenu.setMnemonic('F');
-    fileMenu.add(new LoadSaltBoundary(_picker)).setMnemonic('l');
-    fileMenu.add(new SaveSaltBoundary(_picker)).setMnemonic('b');
+    fileMenu.add(new LoadSaltBoundary()).setMnemonic('l');
+    fileMenu.add(new SaveSaltBoundary()).setMnemonic('b');
     fileMenu.add(new SaveAsPngAction(_frame)).setMnemonic('a');
     fileMenu.add(new ExitAction()).setMnemonic('x');
+    JMenu editMenu = new JMenu("Edit");
+    editMenu.setMnemonic('E');
+    JMenuItem undoItem = editMenu.add(new AbstractAction("Undo") {
+      public void actionPerformed(ActionEvent e) {
+        undoOrRedo(true);
+      }
+    });
+    undoItem.setMnemonic('u');
+    undoItem.setAccelerator(KeyStroke.getKeyStroke(
+      KeyEvent.VK_Z,InputEvent.CTRL_DOWN_MASK));
+    JMenuItem redoItem = editMenu.add(new AbstractAction("Redo") {
+      public void actionPerformed(ActionEvent e) {
+        undoOrRedo(false);
+      }
+    });
+    redoItem.setMnemonic('r');
+    redoItem.setAccelerator(KeyStroke.getKeyStroke(
+      KeyEvent.VK_Y,InputEvent.CTRL_DOWN_MASK));
     JMenu modeMenu = new JMenu("Mode");
     modeMenu.setMnemonic('M');
     modeMenu.add(new ModeMenuItem(tzm));
     modeMenu.add(new ModeMenuItem(pm));
+    modeMenu.add(new ModeMenuItem(lwm));
     JMenu viewMenu = new JMenu("View");
+    viewMenu.setMnemonic('V');
+    final JCheckBoxMenuItem previewItem = 
+      new JCheckBoxMenuItem("Live preview");
+    previewItem.addActionListener(new ActionListener() {
+      public void actionPerformed(ActionEvent e) {
+        _preview = previewItem.isSelected();
+        if (!_preview) 
+          _previewTimer.stop();
+      }
+    });
+    viewMenu.add(previewItem).setMnemonic('l');
+    _previewTimer.setRepeats(false);
     JMenuBar menuBar = new JMenuBar();
     menuBar.add(fileMenu);
+    menuBar.add(editMenu);
     menuBar.add(modeMenu);
     menuBar.add(viewMenu);
     _frame.setJMenuBar(menuBar);
@@ -253,14 +693,30 @@ public class SaltBoundaryPicker2 {
     toolBar.setRollover(true);
     toolBar.add(new ModeToggleButton(tzm));
     toolBar.add(new ModeToggleButton(pm));
+    toolBar.add(new ModeToggleButton(lwm));
     // clean all
     toolBar.add(new JButton(new AbstractAction("C") {
       public void actionPerformed(ActionEvent e) {
-        _points.clear();
-        _pointsView.set(new float[]{-1},new float[]{-1});
-        _picker.clearBoundary();
-        float[][] xs = _picker.getBoundary();
-        _boundaryView.set(xs[0],xs[1]);
+        cancelRefine();
+        stopWire();
+        _history.begin(_ib);
+        for (int ib=_bodies.countBodies()-1; ib>=0; --ib)
+          _history.removeBody(ib);
+        _ib = _history.addBody();
+        _history.end(_ib);
+        updateViews();
+      }
+    }));
+    // start picking a new body
+    toolBar.add(new JButton(new AbstractAction("N") {
+      public void actionPerformed(ActionEvent e) {
+        if (!_points.get(_ib).isEmpty()) {
+          _history.begin(_ib);
+          _ib = _history.addBody();
+          _history.end(_ib);
+        }
+        stopWire();
+        pm.setActive(true);
       }
     }));
     // pick points
@@ -273,26 +729,17 @@ public class SaltBoundaryPicker2 {
     toolBar.add(new JButton(new AbstractAction("R") {
       public void actionPerformed(ActionEvent e) {
         pm.setActive(false);
-        int np = _points.size();
-        float[] i1s = new float[np];
-        float[] i2s = new float[np];
-        for (int ip=0; ip<np; ++ip) {
-          int[] ts = _points.get(ip);
-          i1s[ip] = ts[0];
-          i2s[ip] = ts[1];
-        }
-        i1s[np-1] = i1s[0];
-        i2s[np-1] = i2s[0];
-        _picker.initialBoundary(1,i1s,i2s);
-        trace("i2b="+i2s[0]);
-        trace("i2e="+i2s[np-1]);
-        _picker.refine(60,1,10,2,_env);
-        float[][] xs = _picker.getBoundary();
-        _boundaryView.set(xs[0],xs[1]);
+        refineInBackground();
       }
     }));
     _frame.add(toolBar,BorderLayout.WEST);
 
+    // Progress of refining.
+    _progressBar = new JProgressBar(0,100);
+    _progressBar.setStringPainted(true);
+    _progressBar.setString("");
+    _frame.add(_progressBar,BorderLayout.SOUTH);
+
     // Initially activate paint mode.
   }
 
@@ -325,10 +772,8 @@ public class SaltBoundaryPicker2 {
   }
 
   private class LoadSaltBoundary extends AbstractAction {
-    private SaltPicker2 _picker;
-    private LoadSaltBoundary(SaltPicker2 picker) {
+    private LoadSaltBoundary() {
       super("Load salt boundary");
-      _picker = picker;
     }
     public void actionPerformed(ActionEvent event) {
       JFileChooser fc = new JFileChooser(System.getProperty("user.dir"));
@@ -336,19 +781,42 @@ public class SaltBoundaryPicker2 {
       File file = fc.getSelectedFile();
       if (file!=null) {
         String filename = file.getAbsolutePath();
-        float[][] ps = readFromFile(filename);
-        _picker.setBoundary(ps);
-        float[][] xs = _picker.getBoundary();
-        _boundaryView.set(xs[0],xs[1]);
+        cancelRefine();
+        stopWire();
+        // Files are read before the load, which is one step.
+        BoundaryFile bf = null;
+        float[][] ps = null;
+        if (BoundaryFile.isBoundaryFile(filename)) {
+          bf = BoundaryFile.read(filename);
+        } else {
+          ps = readFromFile(filename);
+        }
+        _history.begin(_ib);
+        if (bf!=null) {
+          for (int ib=_bodies.countBodies()-1; ib>=0; --ib)
+            _history.removeBody(ib);
+          for (int ib=0; ib<bf.count(); ++ib) {
+            SaltPicker2 picker = new SaltPicker2();
+            picker.setBoundary(bf.getBoundary(ib));
+            picker.setParameters(bf.getParameters(ib));
+            _ib = _history.addBody(picker);
+          }
+          if (_bodies.countBodies()==0)
+            _ib = _history.addBody();
+        } else {
+          SaltPicker2 picker = new SaltPicker2();
+          picker.setBoundary(ps);
+          _history.setPicker(_ib,picker);
+        }
+        _history.end(_ib);
+        updateViews();
       }
     }
   }
 
   private class SaveSaltBoundary extends AbstractAction {
-    private SaltPicker2 _picker;
-    private SaveSaltBoundary(SaltPicker2 picker) {
+    private SaveSaltBoundary() {
       super("Save salt boundary");
-      _picker = picker;
     }
     public void actionPerformed(ActionEvent event) {
       JFileChooser fc = new JFileChooser(System.getProperty("user.dir"));
@@ -356,7 +824,7 @@ public class SaltBoundaryPicker2 {
       File file = fc.getSelectedFile();
       if (file!=null) {
         String filename = file.getAbsolutePath();
-        writeToFile(filename,_picker);
+        writeToFile(filename,_bodies);
       }
     }
   }
@@ -364,6 +832,25 @@ public class SaltBoundaryPicker2 {
   ///////////////////////////////////////////////////////////////////////////
   // testing
   //
+  /**
+   * Writes boundaries of all bodies, with their normal vectors and refine
+   * parameters, to a compressed boundary file with specified name.
+   * @param fileName the boundary file name.
+   * @param bodies the salt bodies.
+   */
+  public static void writeToFile(String fileName, SaltBodies2 bodies) {
+    BoundaryFile bf = new BoundaryFile();
+    for (int ib=0; ib<bodies.countBodies(); ++ib) {
+      SaltPicker2 picker = bodies.getPicker(ib);
+      if (!picker.hasBoundary()) continue;
+      float[][] xs = picker.getBoundary();
+      float[][] us = picker.getNormals();
+      bf.add(ib,new float[][]{xs[0],xs[1],us[0],us[1]},
+             picker.getParameters());
+    }
+    bf.write(fileName,true);
+  }
+
   /**
    * Writes a salt boundary to a file with specified name.
    * @param fileName the salt boundary file name.
@@ -375,17 +862,15 @@ public class SaltBoundaryPicker2 {
     try {
       ArrayOutputStream aos = new ArrayOutputStream(fileName);
       aos.writeInt(np);
-      for (int ip=0; ip<np; ++ip) 
-        aos.writeFloat(ps[0][ip]); 
-      for (int ip=0; ip<np; ++ip) 
-        aos.writeFloat(ps[1][ip]); 
+      aos.writeFloats(ps[0],0,np);
+      aos.writeFloats(ps[1],0,np);
       aos.close();
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
-    /**
+  /**
    * Returns a salt boundary read from a file with specified name.
    * @param fileName the salt boundary file name.
    * @return the salt boundary.
@@ -396,10 +881,8 @@ public class SaltBoundaryPicker2 {
       ArrayInputStream ais = new ArrayInputStream(fileName);
       int np = ais.readInt();
       ps = new float[2][np];
-      for (int ip=0; ip<np; ++ip) 
-        ps[0][ip] = ais.readFloat();
-      for (int ip=0; ip<np; ++ip) 
-        ps[1][ip] = ais.readFloat();
+      ais.readFloats(ps[0]);
+      ais.readFloats(ps[1]);
       ais.close();
     } catch (Exception e) {
       throw new RuntimeException(e);
@@ -408,46 +891,66 @@ public class SaltBoundaryPicker2 {
   }
 
 
-  private static float[][] readImage(int n1, int n2, String fileName) {
+  // Returns a name for a temporary file deleted on exit.
+  private static String tempFile(String prefix) throws IOException {
+    File file = File.createTempFile("sbp-"+prefix,".dat");
+    file.deleteOnExit();
+    return file.getAbsolutePath();
+  }
+
+  // Writes an image in memory to a temporary section file.
+  private static SectionReader toSection(float[][] image) {
     try {
-      ArrayInputStream ais = new ArrayInputStream(fileName);
-      float[][] x = new float[n2][n1];
-      ais.readFloats(x);
-      ais.close();
-      return x;
+      SectionReader sr = SectionReader.create(
+        tempFile("image"),image[0].length,image.length);
+      for (int i2=0; i2<image.length; ++i2)
+        sr.writeTrace(i2,image[i2]);
+      return sr;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private static float[][] gain(float sig, float[][] x) {
-    float[][] y = mul(x,x);
-    RecursiveExponentialFilter ref = new RecursiveExponentialFilter(sig);
-    ref.apply1(y,y);
-    return div(x,sqrt(y));
+  // Opens a section of raw floats, and balances its amplitudes into a
+  // temporary section file. The first and last traces are set to a large 
+  // value if edges is true, so that boundaries may follow them.
+  private static SectionReader gain(
+    float sig, String fileName, int n1, int n2, boolean edges) 
+  {
+    try {
+      SectionReader fx = new SectionReader(fileName,n1,n2);
+      SectionReader gx = new SaltPicker2().gain(sig,fx,tempFile("gain"));
+      fx.close();
+      if (edges) {
+        float[] x = new float[n1];
+        float pm = 0f;
+        for (int i2=0; i2<n2; ++i2) {
+          gx.readTrace(i2,0,n1,x);
+          pm = max(pm,max(abs(x)));
+        }
+        fill(pm/3,x);
+        gx.writeTrace(0,x);
+        gx.writeTrace(n2-1,x);
+      }
+      return gx;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
 
   private static void testSaltPickerA() {
-    int n1 = 850;
-    int n2 = 1000;
-    float[][] image = 
-      readImage(n1,n2,"./data/cgg/sub2/gx.dat");
-    image = gain(50,image);
-    float pm = max(abs(image))/3;
-    for (int i1=0; i1<n1; ++i1) {
-      image[0   ][i1] = pm;
-      image[n2-1][i1] = pm;
-    }
-    SaltBoundaryPicker2 sbp = new SaltBoundaryPicker2(image);
+    SectionReader sr = gain(50,"./data/cgg/sub2/gx.dat",850,1000,true);
+    SaltBoundaryPicker2 sbp = new SaltBoundaryPicker2(sr);
   }
 
   private static void testSaltPickerB() {
-    int n1 = 280;
-    int n2 = 260;
-    float[][] image = readImage(n1,n2,"./data/cgg/sub1/gx.dat");
-    image = gain(50,image);
-    SaltBoundaryPicker2 sbp = new SaltBoundaryPicker2(image);
+    SectionReader sr = gain(50,"./data/cgg/sub1/gx.dat",280,260,false);
+    SaltBoundaryPicker2 sbp = new SaltBoundaryPicker2(sr);
+    // Edits are journaled only if requested, e.g., -Dsbp.journal=sub1.jnl
+    String journal = System.getProperty("sbp.journal");
+    if (journal!=null)
+      sbp.setJournal(journal);
   }
 
   private static void trace(String s) {
@@ -61,10 +61,12 @@ public class SaltPicker2 {
       _xus[3][ip] = u2a.get(ip);
     }
     if (np>1) smooth(8,_xus);
+    _params = null;
   }
 
   public void clearBoundary() {
     _xus = null;
+    _params = null;
   }
 
   public float[][] getBoundary() {
@@ -79,7 +81,49 @@ public class SaltPicker2 {
     return new float[][]{_xus[0],_xus[1]};
   }
 
+  /**
+   * Returns the unit normal vectors of the boundary.
+   * @return array {u1s,u2s}; null, if no boundary.
+   */
+  public float[][] getNormals() {
+    return (_xus!=null)?new float[][]{_xus[2],_xus[3]}:null;
+  }
+
+  /**
+   * Returns the parameters of the most recent refine.
+   * @return array {r,d,w,a}; null, if not refined.
+   */
+  public float[] getParameters() {
+    return _params;
+  }
+
+  /**
+   * Sets the parameters of the most recent refine, such as for a refined
+   * boundary that was saved and restored.
+   * @param params array {r,d,w,a}; null, if not refined.
+   */
+  public void setParameters(float[] params) {
+    _params = params;
+  }
+
+  public boolean hasBoundary() {
+    return _xus!=null && _xus[0].length>1;
+  }
+
+  /**
+   * Sets the boundary. For boundaries without normals, such as those
+   * saved by earlier versions, normals are computed from the points.
+   * @param ps array {x1s,x2s,u1s,u2s} or {x1s,x2s}; referenced.
+   */
   public void setBoundary(float[][] ps) { 
+    if (ps!=null && ps.length<4) {
+      int np = ps[0].length;
+      float[] u1 = new float[np];
+      float[] u2 = new float[np];
+      for (int ip=0; ip<np; ++ip)
+        normal(ip,(ip+np-1)%np,(ip+1)%np,ps[0],ps[1],u1,u2);
+      ps = new float[][]{ps[0],ps[1],u1,u2};
+    }
     _xus=ps;
   }
 
@@ -107,58 +151,57 @@ public class SaltPicker2 {
     }
   }
 
+  /**
+   * Regrids a closed boundary to points uniformly spaced in arc length.
+   * The boundary is interpolated with monotonic cubic splines of arc 
+   * length, evaluated in one pass over the boundary together with the 
+   * normal vectors. Two sets of buffers are used in turn, and reused if
+   * the number of points does not change, so that arrays returned by 
+   * {@link #getBoundary()} are not overwritten by the next regrid.
+   * @param d the arc-length sampling interval.
+   * @param x1 array of boundary x1 coordinates; modified.
+   * @param x2 array of boundary x2 coordinates; modified.
+   */
   public void regridBoundary(float d, float[] x1, float[] x2) {
     int np = x1.length;
-    x1[np-1] = x1[0];
-    x2[np-1] = x2[0];
-    int k = 0;
-    float[] ds = new float[np];
-    for (int ip=1; ip<np; ++ip) {
-      float x1i = x1[ip];
-      float x2i = x2[ip];
-      float x1m = x1[ip-1];
-      float x2m = x2[ip-1];
-      float dx1 = x1i-x1m;
-      float dx2 = x2i-x2m;
-      float dsi = sqrt(dx1*dx1+dx2*dx2);
-      if(dsi>0.0f) {
-        k++;
-        x1[k] = x1i;
-        x2[k] = x2i;
-        ds[k] = ds[ip-1]+dsi;
-      }
-    }
-    x1 = copy(k+1,x1);
-    x2 = copy(k+1,x2);
-    ds = copy(k+1,ds);
-    double l = ds[k];
-    int n = (int)round(l/d);
-    Sampling ss = new Sampling(n,d,0);
-    double[] sv = ss.getValues();
-    CubicInterpolator cx1 = new CubicInterpolator(ds,x1);
-    CubicInterpolator cx2 = new CubicInterpolator(ds,x2);
-    float[] x1n = new float[n];
-    float[] x2n = new float[n];
-    float[] u1n = new float[n];
-    float[] u2n = new float[n];
-    for (int i=0; i<n; ++i) {
-      float si = (float)sv[i];
-      x1n[i] = cx1.interpolate(si);
-      x2n[i] = cx2.interpolate(si);
-    }
-    for (int i=0; i<n; ++i) {
-      int ip = i+1; if(ip==n) ip=0;
-      int im = i-1; if(im<0)  im=n-1;
-      float g1 = x1n[ip]-x1n[im];
-      float g2 = x2n[ip]-x2n[im];
-      float gs = sqrt(g1*g1+g2*g2);
-      if(gs>0.0f){g1/=gs;g2/=gs;}
-      u1n[i] = -g2;
-      u2n[i] =  g1;
-    }
-    _xus = new float[][]{x1n,x2n,u1n,u2n};
+    if (_ds==null || _ds.length<np) 
+      _ds = new float[np];
+    int nk = arcLengths(x1,x2,_ds);
+    int n = round(_ds[nk-1]/d);
+    _kxu = 1-_kxu;
+    float[][] xu = _xub[_kxu];
+    if (xu==null || xu[0].length!=n || xu[0]==x1 || xu[1]==x2)
+      xu = _xub[_kxu] = new float[4][n];
+    _xus = regrid(nk,x1,x2,_ds,n,d,xu);
   }
 
+  /**
+   * Resamples a closed boundary to n points uniformly spaced in arc 
+   * length, with the last point equal to the first. The boundary is 
+   * interpolated as in {@link #regridBoundary(float,float[],float[])}.
+   * @param n the number of points, at least 2.
+   * @param xs array {x1,x2} of boundary coordinates; not modified.
+   * @return array {x1,x2} of resampled coordinates.
+   */
+  static float[][] resampleClosed(int n, float[][] xs) {
+    float[] x1 = copy(xs[0]);
+    float[] x2 = copy(xs[1]);
+    float[] ds = new float[x1.length];
+    int nk = arcLengths(x1,x2,ds);
+    float[][] ys = new float[2][n];
+    if (nk<2) {
+      fill(x1[0],ys[0]);
+      fill(x2[0],ys[1]);
+      return ys;
+    }
+    float[][] xu = new float[4][n-1];
+    regrid(nk,x1,x2,ds,n-1,ds[nk-1]/(n-1),xu);
+    copy(n-1,xu[0],ys[0]);
+    copy(n-1,xu[1],ys[1]);
+    ys[0][n-1] = ys[0][0];
+    ys[1][n-1] = ys[1][0];
+    return ys;
+  }
 
   public void pickNext(
     int r, float d, int w, float a, float[] x1, float[] x2, float[][] fx) {
@@ -171,16 +214,136 @@ public class SaltPicker2 {
   public float[][] refine(
     int r, float d, int w, float a, float[][] fx) 
   {
-    float[][] bs = bandSample(r,d,_xus,fx);
+    return refine(r,d,w,a,fx,null);
+  }
+
+  /**
+   * Refines the boundary, with a monitor for the optimal path picking.
+   * The monitor is notified twice for each boundary point. If it cancels
+   * picking, a CancellationException is thrown and the boundary is not 
+   * changed.
+   * @param r half-width, in samples, of the band around the boundary.
+   * @param d sampling interval of the band normal to the boundary.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   * @param fx array[n2][n1] of image samples.
+   * @param monitor the monitor; null, for none.
+   * @return array of band samples around the boundary before refining.
+   */
+  public float[][] refine(
+    int r, float d, int w, float a, float[][] fx, 
+    OptimalPathPicker.Monitor monitor) 
+  {
+    RefineCache.Key key = null;
+    if (_cache!=null) {
+      key = RefineCache.key(_xus,r,d,w,a,modes(),fx);
+      float[][] xus = _xus;
+      if (useCached(key,r,d,w,a)) return bandSample(r,d,xus,fx);
+    }
+    float[][] bs = refineUncached(r,d,w,a,fx,_xus,monitor);
+    if (key!=null) _cache.put(key,_xus);
+    return bs;
+  }
+
+  /**
+   * Sets a cache of refined boundaries. When refining a boundary found 
+   * in the cache, for the same parameters and image, the cached result 
+   * is used.
+   * @param cache the cache; null, for none.
+   */
+  public void setRefineCache(RefineCache cache) {
+    _cache = cache;
+  }
+
+  /**
+   * Sets whether refining picks a closed path. A closed path has minimum
+   * cost among paths that end where they begin, so that the first and 
+   * last points of the refined boundary coincide without a kink. Picks 
+   * of closed paths are not interpolated between band samples, and 
+   * segments are not used.
+   * @param closed true, for closed paths; false, for open paths.
+   */
+  public void setClosed(boolean closed) {
+    _closed = closed;
+  }
+
+  /**
+   * Sets the minimum gate for an adaptive gate. With an adaptive gate, 
+   * the gate for each step between boundary points follows the local dip 
+   * of the band image, so that picking does less work where boundaries 
+   * are smooth, and the gate w of refine is used only where boundaries 
+   * are steep or rugose.
+   * @param gmin the minimum gate, at least 2; zero, for a fixed gate.
+   */
+  public void setAdaptiveGate(int gmin) {
+    _gmin = (gmin>0)?max(2,gmin):0;
+  }
+
+  /**
+   * Sets the scheduler for parallel loops in gains, envelopes, band 
+   * sampling, segments and optimal path picking. Stages of loops are
+   * named gain, insAmp, combine, bandSample, segments, accumulateInline
+   * and accumulateCrossline.
+   * @param scheduler the scheduler; null, for {@link Parallel}.
+   */
+  public void setScheduler(LoopScheduler scheduler) {
+    _scheduler = scheduler;
+  }
+
+  /**
+   * Enables or disables pruning of dominated paths when picking closed 
+   * boundaries. Refined boundaries are the same as without pruning, and 
+   * are computed faster where the band image has high contrast.
+   * @param prune true, to prune; false, to extend all paths.
+   * @see #setClosed(boolean)
+   */
+  public void setPruning(boolean prune) {
+    _prune = prune;
+  }
+
+  /**
+   * Sets the length of boundary segments picked in parallel. Refining a 
+   * boundary with more points than one segment and its overlap then picks 
+   * overlapping segments of the band in parallel, and stitches adjacent 
+   * picks at the point inside their overlap where they cross or are 
+   * closest. Picks in segments may differ slightly from one path picked 
+   * through all points, where segments are not joined at a crossing.
+   * @param length number of points per segment; zero, for one path.
+   * @param overlap number of points shared by adjacent segments.
+   */
+  public void setSegments(int length, int overlap) {
+    _segment = max(0,length);
+    _overlap = max(0,overlap);
+  }
+
+  // Refines the boundary, with the band sampled from fx at points xu, 
+  // the boundary points and normal vectors in the coordinates of fx.
+  private float[][] refineUncached(
+    int r, float d, int w, float a, float[][] fx, float[][] xu,
+    OptimalPathPicker.Monitor monitor) 
+  {
+    float[][] bs = bandSample(r,d,xu,fx);
     int m2 = bs.length;
     int m1 = bs[0].length;
     OptimalPathPicker opp = new OptimalPathPicker(w,a);
+    opp.setMonitor(monitor);
+    opp.setPruning(_prune);
+    opp.setScheduler(_scheduler);
     float[][] ft = opp.applyTransform(bs);
     float[][] wht = opp.applyForWeight(ft);
-    float[][] tms1 = zerofloat(m2,m1);
-    float[][] tms2 = zerofloat(m2,m1);
-    float[] pik1 = opp.forwardPick(r,wht,tms1);
-    float[] pik2 = opp.backwardPick(round(pik1[m2-1]),wht,tms2);
+    int[] gates = (_gmin>0)?opp.applyForGates(wht,_gmin):null;
+    opp.setGates(gates);
+    float[] pik2;
+    if (_closed) {
+      pik2 = opp.pickClosed(wht);
+    } else if (_segment>0 && m2>_segment+_overlap) {
+      pik2 = pickSegments(r,w,a,gates,monitor,wht);
+    } else {
+      float[][] tms1 = zerofloat(m2,m1);
+      float[][] tms2 = zerofloat(m2,m1);
+      float[] pik1 = opp.forwardPick(r,wht,tms1);
+      pik2 = opp.backwardPick(round(pik1[m2-1]),wht,tms2);
+    }
     int np = _xus[0].length;
     for (int ip=0; ip<np; ++ip) {
       float u1i = _xus[2][ip];
@@ -190,24 +353,200 @@ public class SaltPicker2 {
     }
     _xus[0][np-1] = _xus[0][0];
     _xus[1][np-1] = _xus[1][0];
+    _params = new float[]{r,d,w,a};
+    return bs;
+  }
+
+  // Picks overlapping segments of the rows of weights in parallel, with
+  // the forward and backward picks used for one path, and joins adjacent
+  // picks at the row inside their overlap where they are closest; among
+  // rows with equal distance, at the row with least weight. Each segment
+  // is picked with the gates, if any, for its own rows.
+  private float[] pickSegments(
+    final int r, final int w, final float a, final int[] gates,
+    final OptimalPathPicker.Monitor monitor, final float[][] wht) 
+  {
+    final int m2 = wht.length;
+    final int m1 = wht[0].length;
+    final int h = max(1,_overlap/2);
+    final int ns = (m2+_segment-1)/_segment;
+    final int[] cs = new int[ns+1]; // boundaries of segments without overlap
+    for (int is=0; is<=ns; ++is)
+      cs[is] = (int)((long)is*m2/ns);
+    final int[] bs = new int[ns];
+    final float[][] ps = new float[ns][];
+    LoopScheduler.loop(_scheduler,"segments",ns,new Parallel.LoopInt() {
+      public void compute(int is) {
+        int b = max(0,cs[is]-h);
+        int e = min(m2,cs[is+1]+h);
+        float[][] ws = Arrays.copyOfRange(wht,b,e);
+        OptimalPathPicker opp = new OptimalPathPicker(w,a);
+        opp.setMonitor(monitor);
+        opp.setScheduler(_scheduler);
+        if (gates!=null)
+          opp.setGates(Arrays.copyOfRange(gates,b,e));
+        float[] pf = opp.forwardPick(r,ws);
+        int i0 = max(0,min(m1-1,round(pf[e-b-1])));
+        bs[is] = b;
+        ps[is] = opp.backwardPick(i0,ws);
+      }
+    });
+    float[] p = new float[m2];
+    int j = 0; // first row not yet stitched
+    for (int is=0; is<ns; ++is) {
+      int je = m2;
+      if (is<ns-1) {
+        int kb = max(j,bs[is+1]);
+        int ke = min(m2,cs[is+1]+h);
+        float dmin = FLT_MAX, wmin = FLT_MAX;
+        for (int k=kb; k<ke; ++k) {
+          float pa = ps[is][k-bs[is]];
+          float pb = ps[is+1][k-bs[is+1]];
+          float dk = abs(pa-pb);
+          float wk = wht[k][max(0,min(m1-1,round(pa)))];
+          if (dk<dmin || dk==dmin && wk<wmin) {
+            dmin = dk;
+            wmin = wk;
+            je = k;
+          }
+        }
+      }
+      for (; j<je; ++j)
+        p[j] = ps[is][j-bs[is]];
+    }
+    return p;
+  }
+
+  /**
+   * Refines the boundary with an image read on demand. Only the region
+   * of the image that contains the band around the boundary is read.
+   * @param r half-width, in samples, of the band around the boundary.
+   * @param d sampling interval of the band normal to the boundary.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   * @param sr reader for the image.
+   * @param monitor the monitor; null, for none.
+   * @return array of band samples around the boundary before refining.
+   */
+  public float[][] refine(
+    int r, float d, int w, float a, SectionReader sr, 
+    OptimalPathPicker.Monitor monitor) 
+  {
+    RefineCache.Key key = null;
+    if (_cache!=null) {
+      key = RefineCache.key(_xus,r,d,w,a,modes(),sr);
+      float[][] xus = _xus;
+      if (useCached(key,r,d,w,a)) return bandSample(r,d,xus,sr);
+    }
+    int[] jr = bandRegion(r,d,_xus,sr.getN1(),sr.getN2());
+    float[][] fx = sr.readRegion(jr[0],jr[1],jr[2],jr[3]);
+    float[][] bs = refineRegion(r,d,w,a,fx,jr[0],jr[1],monitor);
+    if (key!=null) _cache.put(key,_xus);
     return bs;
   }
 
+  /**
+   * Refines the boundary in a section with contiguous storage. Only the 
+   * region of the section that contains the band around the boundary is 
+   * copied.
+   * @param r half-width, in samples, of the band around the boundary.
+   * @param d sampling interval of the band normal to the boundary.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   * @param fi the section, or a slice of a volume.
+   * @param monitor the monitor; null, for none.
+   * @return array of band samples around the boundary before refining.
+   */
+  public float[][] refine(
+    int r, float d, int w, float a, FloatImage fi, 
+    OptimalPathPicker.Monitor monitor) 
+  {
+    RefineCache.Key key = null;
+    if (_cache!=null) {
+      key = RefineCache.key(_xus,r,d,w,a,modes(),fi);
+      float[][] xus = _xus;
+      if (useCached(key,r,d,w,a)) return bandSample(r,d,xus,fi);
+    }
+    int[] jr = bandRegion(r,d,_xus,fi.getN1(),fi.getN2());
+    float[][] fx = fi.readRegion(jr[0],jr[1],jr[2],jr[3]);
+    float[][] bs = refineRegion(r,d,w,a,fx,jr[0],jr[1],monitor);
+    if (key!=null) _cache.put(key,_xus);
+    return bs;
+  }
+
+  // Returns {j1,j2,m1,m2}, the first indices and numbers of samples of 
+  // the region of an image that contains the band around a boundary.
+  private static int[] bandRegion(
+    int r, float d, float[][] xu, int n1, int n2) 
+  {
+    float e = r*d+8f; // band half-width plus half length of sinc
+    int j1b = max(0,min(n1-1,(int)floor(min(xu[0])-e)));
+    int j2b = max(0,min(n2-1,(int)floor(min(xu[1])-e)));
+    int j1e = max(j1b,min(n1-1,(int)ceil(max(xu[0])+e)));
+    int j2e = max(j2b,min(n2-1,(int)ceil(max(xu[1])+e)));
+    return new int[]{j1b,j2b,j1e-j1b+1,j2e-j2b+1};
+  }
+
+  // Refines the boundary in a region of an image that begins at j1 and j2.
+  // The band is sampled at a shifted copy of the boundary points, so that
+  // the boundary is never shifted in place.
+  private float[][] refineRegion(
+    int r, float d, int w, float a, float[][] fx, int j1, int j2,
+    OptimalPathPicker.Monitor monitor) 
+  {
+    float[][] yu = {sub(_xus[0],j1),sub(_xus[1],j2),_xus[2],_xus[3]};
+    return refineUncached(r,d,w,a,fx,yu,monitor);
+  }
+
+  // Returns modes of picking, for keys of cached boundaries.
+  private int[] modes() {
+    return new int[]{_closed?1:0,_segment,_overlap,_gmin};
+  }
+
+  // Uses a refined boundary from the cache, if found.
+  private boolean useCached(
+    RefineCache.Key key, int r, float d, int w, float a) 
+  {
+    float[][] xus = _cache.get(key);
+    if (xus==null) return false;
+    _xus = xus;
+    _params = new float[]{r,d,w,a};
+    return true;
+  }
+
   public float[][] bandSample(
-    int r, float d, float[][] xu, float[][] fx) {
+    final int r, final float d, final float[][] xu, final float[][] fx) {
+    int np = xu[0].length;
+    final float[][] fbs = new float[np][2*r+1];
+    final int nb = (np+BAND_POINTS-1)/BAND_POINTS;
+    LoopScheduler.loop(_scheduler,"bandSample",nb,new Parallel.LoopInt() {
+      public void compute(int ib) {
+        int ipb = ib*BAND_POINTS;
+        int ipe = min(ipb+BAND_POINTS,fbs.length);
+        bandSample(r,d,xu,fx,ipb,ipe,fbs);
+      }
+    });
+    sub(fbs,min(fbs),fbs);
+    div(fbs,max(fbs),fbs);
+    return fbs;
+  }
+
+  // Samples the band for points ipb <= ip < ipe, before normalization.
+  private static void bandSample(
+    int r, float d, float[][] xu, float[][] fx, int ipb, int ipe,
+    float[][] fbs) 
+  {
     int n2 = fx.length;
     int n1 = fx[0].length;
-    int np = xu[0].length;
     Sampling s1 = new Sampling(n1);
     Sampling s2 = new Sampling(n2);
-    float[][] fbs = new float[np][2*r+1];
     SincInterpolator si = new SincInterpolator();
     si.setExtrapolation(SincInterpolator.Extrapolation.CONSTANT);
     float sig=50f;
     float pi = (float)Math.PI;
     float sigs = sig*sig;
     float gaus = 1f/sqrt(2f*sigs*pi);
-    for (int ip=0; ip<np; ++ip) {
+    for (int ip=ipb; ip<ipe; ++ip) {
       float x1i = xu[0][ip];
       float x2i = xu[1][ip];
       float u1i = xu[2][ip];
@@ -230,45 +569,226 @@ public class SaltPicker2 {
         fbs[ip][ir+r]=fxi*gui*gaus;
       }
     }
-    sub(fbs,min(fbs),fbs);
-    div(fbs,max(fbs),fbs);
-    return fbs;
   }
 
+  /**
+   * Samples a band around a boundary in a section with contiguous 
+   * storage. Only the region of the section that contains the band is 
+   * copied.
+   * @param r half-width, in samples, of the band.
+   * @param d sampling interval of the band normal to the boundary.
+   * @param xu array {x1,x2,u1,u2} of boundary points and normal vectors.
+   * @param fi the section, or a slice of a volume.
+   * @return array[np][2*r+1] of band samples.
+   */
+  public float[][] bandSample(
+    int r, float d, float[][] xu, FloatImage fi) 
+  {
+    int[] jr = bandRegion(r,d,xu,fi.getN1(),fi.getN2());
+    float[][] fx = fi.readRegion(jr[0],jr[1],jr[2],jr[3]);
+    float[][] yu = {sub(xu[0],jr[0]),sub(xu[1],jr[1]),xu[2],xu[3]};
+    return bandSample(r,d,yu,fx);
+  }
+
+  /**
+   * Samples a band around a boundary in an image read on demand. Only the 
+   * region of the image that contains the band is read.
+   * @param r half-width, in samples, of the band.
+   * @param d sampling interval of the band normal to the boundary.
+   * @param xu array {x1,x2,u1,u2} of boundary points and normal vectors.
+   * @param sr reader for the image.
+   * @return array[np][2*r+1] of band samples.
+   */
+  public float[][] bandSample(
+    int r, float d, float[][] xu, SectionReader sr) 
+  {
+    int[] jr = bandRegion(r,d,xu,sr.getN1(),sr.getN2());
+    float[][] fx = sr.readRegion(jr[0],jr[1],jr[2],jr[3]);
+    float[][] yu = {sub(xu[0],jr[0]),sub(xu[1],jr[1]),xu[2],xu[3]};
+    return bandSample(r,d,yu,fx);
+  }
+
+  /**
+   * Combines the normalized envelope and salt likelihood in place.
+   * Samples where both slopes are smaller than pmin take the envelope
+   * value; the first and last traces of each slice are set to half of
+   * the resulting maximum. All statistics needed are gathered in one
+   * parallel reduction so that the volumes are swept only twice.
+   * @param pmin threshold for absolute slopes.
+   * @param p2 inline slopes.
+   * @param p3 crossline slopes.
+   * @param pa envelope, normalized in place.
+   * @param sl salt likelihood, replaced by the combined image.
+   */
+  public void combineEnvAndSaltLike(
+    final float pmin, final float[][][] p2, final float[][][] p3, 
+    final float[][][] pa, final float[][][] sl) 
+  {
+    final int n3 = pa.length;
+    final int n2 = pa[0].length; 
+    final int n1 = pa[0][0].length; 
+
+    // {min(pa),max(pa),min(sl),max(sl),max(pa) masked,max(sl) unmasked}
+    float[] st = LoopScheduler.reduce(_scheduler,"combine",n3,
+      new Parallel.ReduceInt<float[]>() {
+      public float[] compute(int i3) {
+        float[] st = initialStats();
+        for (int i2=0; i2<n2; ++i2)
+          accumulateStats(pmin,p2[i3][i2],p3[i3][i2],pa[i3][i2],sl[i3][i2],st);
+        return st;
+      }
+      public float[] combine(float[] sa, float[] sb) {
+        return combineStats(sa,sb);
+      }
+    });
+    final float[] sn = normalization(st);
+    LoopScheduler.loop(_scheduler,"combine",n3,new Parallel.LoopInt() {
+      public void compute(int i3) {
+        for (int i2=0; i2<n2; ++i2)
+          normalize(pmin,p2[i3][i2],p3[i3][i2],pa[i3][i2],sl[i3][i2],sn);
+        for (int i1=0; i1<n1; ++i1) {
+          sl[i3][0   ][i1] = sn[4];
+          sl[i3][n2-1][i1] = sn[4];
+        }
+      }
+    });
+  }
+
+  /**
+   * Combines envelope and salt likeness, as for arrays, for volumes with
+   * contiguous storage. Traces are copied to and from temporary arrays,
+   * one trace of each volume at a time.
+   * @param pmin threshold of slopes below which envelope is used.
+   * @param p2 inline slopes.
+   * @param p3 crossline slopes.
+   * @param pa envelope, replaced with normalized envelope.
+   * @param sl salt likeness, replaced with combined image.
+   */
   public void combineEnvAndSaltLike(
-    float pmin, float[][][] p2, float[][][] p3, float[][][] pa, float[][][] sl) 
+    final float pmin, final FloatImage p2, final FloatImage p3, 
+    final FloatImage pa, final FloatImage sl) 
   {
-    sub(pa,min(pa),pa);
-    div(pa,max(pa),pa);
-    sub(sl,min(sl),sl);
-    div(sl,max(sl),sl);
-    int n3 = pa.length;
-    int n2 = pa[0].length; 
-    int n1 = pa[0][0].length; 
-    for (int i3=0; i3<n3; ++i3) {
-    for (int i2=0; i2<n2; ++i2) {
+    final int n3 = pa.getN3();
+    final int n2 = pa.getN2(); 
+    final int n1 = pa.getN1(); 
+    float[] st = LoopScheduler.reduce(_scheduler,"combine",n3,
+      new Parallel.ReduceInt<float[]>() {
+      public float[] compute(int i3) {
+        float[][] t = new float[4][n1];
+        float[] st = initialStats();
+        for (int i2=0; i2<n2; ++i2) {
+          p2.getTrace(i2,i3,t[0]);
+          p3.getTrace(i2,i3,t[1]);
+          pa.getTrace(i2,i3,t[2]);
+          sl.getTrace(i2,i3,t[3]);
+          accumulateStats(pmin,t[0],t[1],t[2],t[3],st);
+        }
+        return st;
+      }
+      public float[] combine(float[] sa, float[] sb) {
+        return combineStats(sa,sb);
+      }
+    });
+    final float[] sn = normalization(st);
+    LoopScheduler.loop(_scheduler,"combine",n3,new Parallel.LoopInt() {
+      public void compute(int i3) {
+        float[][] t = new float[4][n1];
+        for (int i2=0; i2<n2; ++i2) {
+          p2.getTrace(i2,i3,t[0]);
+          p3.getTrace(i2,i3,t[1]);
+          pa.getTrace(i2,i3,t[2]);
+          sl.getTrace(i2,i3,t[3]);
+          normalize(pmin,t[0],t[1],t[2],t[3],sn);
+          if (i2==0 || i2==n2-1)
+            fill(sn[4],t[3]);
+          pa.setTrace(i2,i3,t[2]);
+          sl.setTrace(i2,i3,t[3]);
+        }
+      }
+    });
+  }
+
+  // Returns initial statistics {min(pa),max(pa),min(sl),max(sl),
+  // max(pa) masked,max(sl) unmasked}.
+  private static float[] initialStats() {
+    return new float[]{FLT_MAX,-FLT_MAX,FLT_MAX,-FLT_MAX,-FLT_MAX,-FLT_MAX};
+  }
+
+  // Accumulates statistics for one trace.
+  private static void accumulateStats(
+    float pmin, float[] p23, float[] p33, float[] pa3, float[] sl3, 
+    float[] st) 
+  {
+    float pamin = st[0], pamax = st[1];
+    float slmin = st[2], slmax = st[3];
+    float pmmax = st[4], smmax = st[5];
+    int n1 = pa3.length;
     for (int i1=0; i1<n1; ++i1) {
-      float p2i = abs(p2[i3][i2][i1]);
-      float p3i = abs(p3[i3][i2][i1]);
-      if(p2i<pmin&&p3i<pmin) {
-        sl[i3][i2][i1] = pa[i3][i2][i1];
+      float pai = pa3[i1];
+      float sli = sl3[i1];
+      if (pai<pamin) pamin = pai;
+      if (pai>pamax) pamax = pai;
+      if (sli<slmin) slmin = sli;
+      if (sli>slmax) slmax = sli;
+      if (abs(p23[i1])<pmin&&abs(p33[i1])<pmin) {
+        if (pai>pmmax) pmmax = pai;
+      } else {
+        if (sli>smmax) smmax = sli;
       }
-    }}}
-    float slm = max(sl)*0.5f;
-    for (int i3=0; i3<n3; ++i3) {
+    }
+    st[0] = pamin; st[1] = pamax;
+    st[2] = slmin; st[3] = slmax;
+    st[4] = pmmax; st[5] = smmax;
+  }
+
+  private static float[] combineStats(float[] sa, float[] sb) {
+    return new float[]{
+      min(sa[0],sb[0]),max(sa[1],sb[1]),
+      min(sa[2],sb[2]),max(sa[3],sb[3]),
+      max(sa[4],sb[4]),max(sa[5],sb[5])};
+  }
+
+  // Returns {pamin,par,slmin,slr,slh} from statistics. Normalization is 
+  // monotonic, so the maximum of the combined image follows from the 
+  // maxima of its masked and unmasked parts.
+  private static float[] normalization(float[] st) {
+    float pamin = st[0];
+    float slmin = st[2];
+    float par = st[1]-pamin;
+    float slr = st[3]-slmin;
+    float slm = -FLT_MAX;
+    if (st[4]>-FLT_MAX) slm = max(slm,(st[4]-pamin)/par);
+    if (st[5]>-FLT_MAX) slm = max(slm,(st[5]-slmin)/slr);
+    return new float[]{pamin,par,slmin,slr,slm*0.5f};
+  }
+
+  // Normalizes envelope and combines it with salt likeness for one trace.
+  private static void normalize(
+    float pmin, float[] p23, float[] p33, float[] pa3, float[] sl3, 
+    float[] sn) 
+  {
+    float pamin = sn[0], par = sn[1];
+    float slmin = sn[2], slr = sn[3];
+    int n1 = pa3.length;
     for (int i1=0; i1<n1; ++i1) {
-      sl[i3][0   ][i1] = slm;
-      sl[i3][n2-1][i1] = slm;
-    }}
+      float pai = (pa3[i1]-pamin)/par;
+      pa3[i1] = pai;
+      if (abs(p23[i1])<pmin&&abs(p33[i1])<pmin) {
+        sl3[i1] = pai;
+      } else {
+        sl3[i1] = (sl3[i1]-slmin)/slr;
+      }
+    }
   }
 
+
   public float[][][] applyForInsAmp(final float[][][] fx) {
     final int n3 = fx.length;
     final int n2 = fx[0].length; 
     final int n1 = fx[0][0].length; 
     final float[][][] pa = new float[n3][n2][n1];
     final HilbertTransformFilter hbt = new HilbertTransformFilter();
-    Parallel.loop(n3,new Parallel.LoopInt() {
+    LoopScheduler.loop(_scheduler,"insAmp",n3,new Parallel.LoopInt() {
       public void compute(int i3) {
       float[][] fx3 = fx[i3];
       float[][] pa3 = pa[i3];
@@ -288,12 +808,214 @@ public class SaltPicker2 {
   }
 
 
+  /**
+   * Computes the instantaneous amplitude of a section read on demand,
+   * one trace at a time, into a new section file.
+   * @param sr reader for the section.
+   * @param fileName name of the file for instantaneous amplitudes.
+   * @return reader for instantaneous amplitudes.
+   */
+  public SectionReader applyForInsAmp(
+    final SectionReader sr, String fileName) 
+  {
+    final int n1 = sr.getN1();
+    final int n2 = sr.getN2();
+    final SectionReader pa = SectionReader.create(fileName,n1,n2);
+    final HilbertTransformFilter hbt = new HilbertTransformFilter();
+    LoopScheduler.loop(_scheduler,"insAmp",n2,new Parallel.LoopInt() {
+      public void compute(int i2) {
+        float[] fr = new float[n1];
+        float[] fi = new float[n1];
+        sr.readTrace(i2,0,n1,fr);
+        hbt.apply(n1,fr,fi);
+        for (int i1=0; i1<n1; i1++){
+          float fxi = fi[i1];
+          float fxr = fr[i1];
+          float pai = sqrt(fxr*fxr+fxi*fxi);
+          if(Float.isInfinite(pai)||Float.isNaN(pai)){
+            fi[i1] = 0f;
+          } else { fi[i1] = pai; }
+        }
+        pa.writeTrace(i2,fi);
+      }
+    });
+    return pa;
+  }
+
+  /**
+   * Balances amplitudes by dividing by the root-mean-square amplitude in
+   * a window that slides along traces.
+   * @param sig half-width, in samples, of the smoothing window.
+   * @param x array[n2][n1] of image samples.
+   * @return array[n2][n1] of balanced samples.
+   */
+  public float[][] gain(float sig, float[][] x) {
+    float[][] y = new float[x.length][x[0].length];
+    gain(sig,x,y);
+    return y;
+  }
+
+  /**
+   * Balances amplitudes, with traces processed in parallel. Only one 
+   * temporary trace is allocated per trace.
+   * @param sig half-width, in samples, of the smoothing window.
+   * @param x array[n2][n1] of image samples.
+   * @param y array[n2][n1] of balanced samples; may be the same as x.
+   */
+  public void gain(float sig, final float[][] x, final float[][] y) {
+    applyForInsAmp(sig,x,y,null);
+  }
+
+  /**
+   * Balances amplitudes of a section read on demand, one trace at a time,
+   * into a new section file.
+   * @param sig half-width, in samples, of the smoothing window.
+   * @param sr reader for the section.
+   * @param fileName name of the file for balanced samples.
+   * @return reader for balanced samples.
+   */
+  public SectionReader gain(
+    float sig, final SectionReader sr, String fileName) 
+  {
+    final int n1 = sr.getN1();
+    final int n2 = sr.getN2();
+    final SectionReader gx = SectionReader.create(fileName,n1,n2);
+    final RecursiveExponentialFilter ref = new RecursiveExponentialFilter(sig);
+    LoopScheduler.loop(_scheduler,"gain",n2,new Parallel.LoopInt() {
+      public void compute(int i2) {
+        float[] fx = new float[n1];
+        sr.readTrace(i2,0,n1,fx);
+        gainAndInsAmp(ref,null,fx,fx,null);
+        gx.writeTrace(i2,fx);
+      }
+    });
+    return gx;
+  }
+
+  /**
+   * Balances amplitudes in a 3D image.
+   * @param sig half-width, in samples, of the smoothing window.
+   * @param x array[n3][n2][n1] of image samples.
+   * @return array[n3][n2][n1] of balanced samples.
+   */
+  public float[][][] gain(float sig, float[][][] x) {
+    float[][][] y = new float[x.length][x[0].length][x[0][0].length];
+    gain(sig,x,y);
+    return y;
+  }
+
+  /**
+   * Balances amplitudes in a 3D image, with traces processed in parallel.
+   * @param sig half-width, in samples, of the smoothing window.
+   * @param x array[n3][n2][n1] of image samples.
+   * @param y array[n3][n2][n1] of balanced samples; may be the same as x.
+   */
+  public void gain(float sig, final float[][][] x, final float[][][] y) {
+    applyForInsAmp(sig,x,y,null);
+  }
+
+  /**
+   * Balances amplitudes and computes the instantaneous amplitude of the
+   * balanced image in one pass over traces, processed in parallel.
+   * @param sig half-width, in samples, of the gain smoothing window.
+   * @param fx array[n2][n1] of image samples.
+   * @param gx array[n2][n1] of balanced samples; may be the same as fx,
+   *  or null, if balanced samples are not needed.
+   * @return array[n2][n1] of instantaneous amplitudes.
+   */
+  public float[][] applyForInsAmp(
+    float sig, final float[][] fx, final float[][] gx) 
+  {
+    float[][] pa = new float[fx.length][fx[0].length];
+    applyForInsAmp(sig,fx,gx,pa);
+    return pa;
+  }
+
+  /**
+   * Balances amplitudes and computes the instantaneous amplitude of the
+   * balanced 3D image in one pass over traces, processed in parallel.
+   * @param sig half-width, in samples, of the gain smoothing window.
+   * @param fx array[n3][n2][n1] of image samples.
+   * @param gx array[n3][n2][n1] of balanced samples; may be the same as 
+   *  fx, or null, if balanced samples are not needed.
+   * @return array[n3][n2][n1] of instantaneous amplitudes.
+   */
+  public float[][][] applyForInsAmp(
+    float sig, final float[][][] fx, final float[][][] gx) 
+  {
+    float[][][] pa = new float[fx.length][fx[0].length][fx[0][0].length];
+    applyForInsAmp(sig,fx,gx,pa);
+    return pa;
+  }
+
+  // Balances amplitudes in fx, if gx or pa is not null, and computes 
+  // instantaneous amplitudes, if pa is not null, for all traces.
+  private void applyForInsAmp(
+    float sig, final float[][][] fx, final float[][][] gx, 
+    final float[][][] pa)
+  {
+    final int n3 = fx.length;
+    final int n2 = fx[0].length;
+    final RecursiveExponentialFilter ref = new RecursiveExponentialFilter(sig);
+    final HilbertTransformFilter hbt = new HilbertTransformFilter();
+    String stage = (pa!=null)?"insAmp":"gain";
+    LoopScheduler.loop(_scheduler,stage,n3*n2,new Parallel.LoopInt() {
+      public void compute(int i) {
+        int i3 = i/n2, i2 = i%n2;
+        gainAndInsAmp(ref,hbt,fx[i3][i2],
+          (gx!=null)?gx[i3][i2]:null,(pa!=null)?pa[i3][i2]:null);
+      }
+    });
+  }
+
+  private void applyForInsAmp(
+    float sig, final float[][] fx, final float[][] gx, final float[][] pa)
+  {
+    final int n2 = fx.length;
+    final RecursiveExponentialFilter ref = new RecursiveExponentialFilter(sig);
+    final HilbertTransformFilter hbt = new HilbertTransformFilter();
+    String stage = (pa!=null)?"insAmp":"gain";
+    LoopScheduler.loop(_scheduler,stage,n2,new Parallel.LoopInt() {
+      public void compute(int i2) {
+        gainAndInsAmp(ref,hbt,fx[i2],
+          (gx!=null)?gx[i2]:null,(pa!=null)?pa[i2]:null);
+      }
+    });
+  }
+
+  // Balances one trace, into gx if not null, and computes instantaneous 
+  // amplitudes of the balanced trace, into pa if not null. The trace fx 
+  // is read once, and one temporary trace is used for both steps.
+  private static void gainAndInsAmp(
+    RecursiveExponentialFilter ref, HilbertTransformFilter hbt,
+    float[] fx, float[] gx, float[] pa)
+  {
+    int n1 = fx.length;
+    float[] t = new float[n1];
+    for (int i1=0; i1<n1; ++i1)
+      t[i1] = fx[i1]*fx[i1];
+    ref.apply1(t,t);
+    float[] g = (gx!=null)?gx:t;
+    for (int i1=0; i1<n1; ++i1)
+      g[i1] = fx[i1]/sqrt(t[i1]);
+    if (pa==null) return;
+    hbt.apply(n1,g,pa);
+    for (int i1=0; i1<n1; i1++){
+      float fxi = pa[i1];
+      float fxr = g[i1];
+      float pai = sqrt(fxr*fxr+fxi*fxi);
+      if(Float.isInfinite(pai)||Float.isNaN(pai)){
+        pa[i1] = 0f;
+      } else { pa[i1] = pai; }
+    }
+  }
+
   public float[][] applyForInsAmp(final float[][] fx) {
     final int n2 = fx.length;
     final int n1 = fx[0].length; 
     final float[][] pa = new float[n2][n1];
     final HilbertTransformFilter hbt = new HilbertTransformFilter();
-    Parallel.loop(n2,new Parallel.LoopInt() {
+    LoopScheduler.loop(_scheduler,"insAmp",n2,new Parallel.LoopInt() {
       public void compute(int i2) {
       float[] fi = new float[n1];
       hbt.apply(n1,fx[i2],fi);
@@ -309,6 +1031,144 @@ public class SaltPicker2 {
     return pa;
   }
 
+  // Closes a boundary, removes repeated points in place, and computes
+  // arc lengths ds of the remaining points. Returns the number of points.
+  private static int arcLengths(float[] x1, float[] x2, float[] ds) {
+    int np = x1.length;
+    x1[np-1] = x1[0];
+    x2[np-1] = x2[0];
+
+    ds[0] = 0f;
+    int k = 0;
+    for (int ip=1; ip<np; ++ip) {
+      float dx1 = x1[ip]-x1[k];
+      float dx2 = x2[ip]-x2[k];
+      float dsi = sqrt(dx1*dx1+dx2*dx2);
+      if(dsi>0.0f) {
+        k++;
+        x1[k] = x1[ip];
+        x2[k] = x2[ip];
+        ds[k] = ds[k-1]+dsi;
+      }
+    }
+    return k+1;
+  }
+
+  // Computes xu = {x1,x2,u1,u2} for n points with arc lengths i*d,
+  // interpolated from nk points x1 and x2 with arc lengths ds.
+  private static float[][] regrid(
+    int nk, float[] x1, float[] x2, float[] ds, int n, float d,
+    float[][] xu)
+  {
+    float[] x1n = xu[0], x2n = xu[1];
+    float[] u1n = xu[2], u2n = xu[3];
+
+    // Walk the knot intervals once, evaluating the splines at increasing
+    // arc lengths. The normal at each point is computed as soon as its
+    // next point is known; the first normal wraps around at the end.
+    int ik = 0;
+    float s0 = 0f, h = 1f;
+    float a1 = 0f, b1 = 0f, c1 = 0f, e1 = 0f;
+    float a2 = 0f, b2 = 0f, c2 = 0f, e2 = 0f;
+    for (int i=0; i<n; ++i) {
+      float si = i*d;
+      int jk = ik;
+      while (jk<nk-2 && si>ds[jk+1]) ++jk;
+      if (i==0 || jk!=ik) {
+        ik = jk;
+        s0 = ds[ik];
+        h = ds[ik+1]-s0;
+        float y10 = x1[ik], y11 = x1[ik+1];
+        float y20 = x2[ik], y21 = x2[ik+1];
+        float d10 = slope(ik,nk,ds,x1), d11 = slope(ik+1,nk,ds,x1);
+        float d20 = slope(ik,nk,ds,x2), d21 = slope(ik+1,nk,ds,x2);
+        float m1 = (y11-y10)/h, m2 = (y21-y20)/h;
+        a1 = y10; b1 = d10; c1 = (3f*m1-2f*d10-d11)/h; 
+        e1 = (d10+d11-2f*m1)/(h*h);
+        a2 = y20; b2 = d20; c2 = (3f*m2-2f*d20-d21)/h; 
+        e2 = (d20+d21-2f*m2)/(h*h);
+      }
+      float t = si-s0;
+      x1n[i] = a1+t*(b1+t*(c1+t*e1));
+      x2n[i] = a2+t*(b2+t*(c2+t*e2));
+      if (i>=2) normal(i-1,i-2,i,x1n,x2n,u1n,u2n);
+    }
+    if (n>=2) {
+      normal(n-1,n-2,0,x1n,x2n,u1n,u2n);
+      normal(0,n-1,1,x1n,x2n,u1n,u2n);
+    } else if (n==1) {
+      normal(0,0,0,x1n,x2n,u1n,u2n);
+    }
+    return xu;
+  }
+
+  // Sets the unit normal at point i from its neighbors im and ip.
+  private static void normal(
+    int i, int im, int ip, 
+    float[] x1, float[] x2, float[] u1, float[] u2) 
+  {
+    float g1 = x1[ip]-x1[im];
+    float g2 = x2[ip]-x2[im];
+    float gs = sqrt(g1*g1+g2*g2);
+    if(gs>0.0f){g1/=gs;g2/=gs;}
+    u1[i] = -g2;
+    u2[i] =  g1;
+  }
+
+  // Returns the derivative at knot k of a monotonic cubic interpolant of
+  // y(s) with nk knots, computed as in Fritsch and Butland (1984), which 
+  // is the method used by a monotonic CubicInterpolator.
+  private static float slope(int k, int nk, float[] s, float[] y) {
+    if (nk<2) return 0f;
+    if (nk==2) return (y[1]-y[0])/(s[1]-s[0]);
+    if (k==0 || k==nk-1) {
+      int j = (k==0)?0:nk-3;
+      float h1 = s[j+1]-s[j];
+      float h2 = s[j+2]-s[j+1];
+      float del1 = (y[j+1]-y[j])/h1;
+      float del2 = (y[j+2]-y[j+1])/h2;
+      float hs = h1+h2;
+      float dk, del;
+      if (k==0) {
+        dk = ((h1+hs)*del1-h1*del2)/hs;
+        del = del1;
+      } else {
+        dk = ((h2+hs)*del2-h2*del1)/hs;
+        del = del2;
+      }
+      if (dk*del<=0f) {
+        dk = 0f;
+      } else if (del1*del2<0f && abs(dk)>abs(3f*del)) {
+        dk = 3f*del;
+      }
+      return dk;
+    }
+    float h1 = s[k]-s[k-1];
+    float h2 = s[k+1]-s[k];
+    float del1 = (y[k]-y[k-1])/h1;
+    float del2 = (y[k+1]-y[k])/h2;
+    if (del1*del2<=0f) return 0f;
+    float hs3 = 3f*(h1+h2);
+    float w1 = (h1+h2+h1)/hs3;
+    float w2 = (h1+h2+h2)/hs3;
+    float dmax = max(abs(del1),abs(del2));
+    float dmin = min(abs(del1),abs(del2));
+    return dmin/(w1*del1/dmax+w2*del2/dmax);
+  }
+
+  private static final int BAND_POINTS = 256; // points sampled per task
+
   private float[][] _xus=null;
+  private float[] _ds=null; // arc lengths used when regridding
+  private float[][][] _xub = new float[2][][]; // buffers used in turn
+  private int _kxu; // index of the buffers last used
+  private float[] _params=null; // {r,d,w,a} of the most recent refine
+  private RefineCache _cache=null; // refined boundaries, if any
+  private boolean _closed=false; // true, to pick closed paths
+  private int _segment=0; // points per segment picked in parallel, if any
+  private int _overlap=0; // points shared by adjacent segments
+  private int _gmin=0; // minimum adaptive gate, if any
+  private boolean _prune=false; // true, to prune closed picks
+  private LoopScheduler _scheduler=null; // for parallel loops, if any
 
 }
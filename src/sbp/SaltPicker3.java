@@ -0,0 +1,362 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+
+import edu.mines.jtk.io.ArrayFile;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * 3D salt boundary interpretation by propagating a boundary picked on
+ * one inline slice through all inline slices of a volume.
+ * <p>
+ * Each slice is picked with the boundary of its already picked neighbor
+ * as the initial boundary, as in {@link SaltPicker2#pickNext}. While one
+ * slice is being picked, the next slice to be picked is read and its
+ * envelope is computed in a background thread.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class SaltPicker3 {
+
+  /**
+   * Reads inline slices of a volume.
+   */
+  public interface SliceReader {
+    /**
+     * Returns the inline slice with specified index.
+     * @param i3 the slice index.
+     * @return array[n2][n1] of slice samples.
+     */
+    public float[][] readSlice(int i3);
+  }
+
+  /**
+   * Constructs a picker with specified refine parameters.
+   * @param r half-width, in samples, of the band around boundaries.
+   * @param d sampling interval of the band normal to boundaries.
+   * @param w gate of the optimal path picking.
+   * @param a smoothness of the optimal path picking.
+   */
+  public SaltPicker3(int r, float d, int w, float a) {
+    _r = r;
+    _d = d;
+    _w = w;
+    _a = a;
+  }
+
+  /**
+   * Picks boundaries in all inline slices of a volume in memory.
+   * @param k3 index of the slice with the seed boundary.
+   * @param xs array {x1,x2} of seed boundary coordinates.
+   * @param fx array[n3][n2][n1] of image samples.
+   * @return array[n3][2][] of boundary coordinates {x1,x2}.
+   */
+  public float[][][] pick(int k3, float[][] xs, final float[][][] fx) {
+    return pick(k3,xs,fx.length,new SliceReader() {
+      public float[][] readSlice(int i3) {
+        return fx[i3];
+      }
+    });
+  }
+
+  /**
+   * Picks boundaries in all inline slices of a volume stored in a file.
+   * The file contains n3 slices of n2 traces of n1 big-endian floats.
+   * @param k3 index of the slice with the seed boundary.
+   * @param xs array {x1,x2} of seed boundary coordinates.
+   * @param n1 number of samples per trace.
+   * @param n2 number of traces per slice.
+   * @param n3 number of slices.
+   * @param fileName name of the volume file.
+   * @return array[n3][2][] of boundary coordinates {x1,x2}.
+   */
+  public float[][][] pick(
+    int k3, float[][] xs, final int n1, final int n2, int n3,
+    String fileName)
+  {
+    try {
+      final ArrayFile af = new ArrayFile(fileName,"r");
+      try {
+        return pick(k3,xs,n3,new SliceReader() {
+          public float[][] readSlice(int i3) {
+            float[][] x = new float[n2][n1];
+            try {
+              synchronized(af) {
+                af.seek((long)i3*n2*n1*4L);
+                af.readFloats(x);
+              }
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+            return x;
+          }
+        });
+      } finally {
+        af.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Picks boundaries in all inline slices read by a slice reader.
+   * @param k3 index of the slice with the seed boundary.
+   * @param xs array {x1,x2} of seed boundary coordinates.
+   * @param n3 number of slices.
+   * @param sr the slice reader.
+   * @return array[n3][2][] of boundary coordinates {x1,x2}.
+   */
+  public float[][][] pick(int k3, float[][] xs, int n3, SliceReader sr) {
+    // Slices in the order they are picked: forward, then backward.
+    int[] i3s = new int[n3-1];
+    int k = 0;
+    for (int i3=k3+1; i3<n3; ++i3) i3s[k++] = i3;
+    for (int i3=k3-1; i3>=0; --i3) i3s[k++] = i3;
+
+    float[][][] bs = new float[n3][][];
+    bs[k3] = new float[][]{copy(xs[0]),copy(xs[1])};
+    ExecutorService es = Executors.newSingleThreadExecutor(
+      new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r,"SaltPicker3-prefetch");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    try {
+      SaltPicker2 sp = new SaltPicker2();
+      Future<float[][]> next = (k>0)?es.submit(envelope(sr,i3s[0])):null;
+      for (int is=0; is<k; ++is) {
+        int i3 = i3s[is];
+        float[][] env = next.get();
+        next = (is+1<k)?es.submit(envelope(sr,i3s[is+1])):null;
+        float[][] xp = (i3>k3)?bs[i3-1]:bs[i3+1];
+        sp.pickNext(_r,_d,_w,_a,copy(xp[0]),copy(xp[1]),env);
+        float[][] xi = sp.getBoundary();
+        bs[i3] = new float[][]{copy(xi[0]),copy(xi[1])};
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      es.shutdownNow();
+    }
+    return bs;
+  }
+
+  /**
+   * Picks boundaries in all inline slices of a volume in memory, starting
+   * from multiple seed slices.
+   * @param k3s indices of slices with seed boundaries.
+   * @param xss array of seed boundaries {x1,x2}, one for each seed slice.
+   * @param fx array[n3][n2][n1] of image samples.
+   * @param nthread maximum number of propagation fronts picked at once.
+   * @return array[n3][2][] of boundary coordinates {x1,x2}.
+   */
+  public float[][][] pick(
+    int[] k3s, float[][][] xss, final float[][][] fx, int nthread) 
+  {
+    return pick(k3s,xss,fx.length,new SliceReader() {
+      public float[][] readSlice(int i3) {
+        return fx[i3];
+      }
+    },nthread);
+  }
+
+  /**
+   * Picks boundaries in all inline slices, starting from multiple seed 
+   * slices. Each seed boundary is propagated forward and backward at the 
+   * same time, until it meets the front propagated from the neighboring 
+   * seed. The two boundaries picked in the slice where fronts meet are
+   * averaged. Fronts are picked concurrently by a bounded pool of
+   * threads; slices shared by two fronts are read only once.
+   * @param k3s indices of slices with seed boundaries.
+   * @param xss array of seed boundaries {x1,x2}, one for each seed slice.
+   * @param n3 number of slices.
+   * @param sr the slice reader; must be safe for concurrent use.
+   * @param nthread maximum number of propagation fronts picked at once.
+   * @return array[n3][2][] of boundary coordinates {x1,x2}.
+   */
+  public float[][][] pick(
+    int[] k3s, float[][][] xss, int n3, SliceReader sr, int nthread) 
+  {
+    int ns = k3s.length;
+    int[] ks = new int[ns];
+    float[][][] xs = new float[ns][][];
+    for (int is=0; is<ns; ++is) {
+      int js = is;
+      while (js>0 && ks[js-1]>k3s[is]) {
+        ks[js] = ks[js-1];
+        xs[js] = xs[js-1];
+        --js;
+      }
+      ks[js] = k3s[is];
+      xs[js] = xss[is];
+    }
+    for (int is=0; is<ns; ++is) {
+      if (ks[is]<0 || ks[is]>=n3 || (is>0 && ks[is]==ks[is-1]))
+        throw new IllegalArgumentException("invalid seed slice "+ks[is]);
+    }
+
+    // Slices and fronts: each front ends where it meets its neighbor.
+    Slice[] ss = new Slice[n3];
+    for (int i3=0; i3<n3; ++i3)
+      ss[i3] = new Slice();
+    ArrayList<Callable<Void>> fronts = 
+      new ArrayList<Callable<Void>>();
+    for (int is=0; is<ns; ++is) {
+      int k3 = ks[is];
+      ss[k3].xf = new float[][]{copy(xs[is][0]),copy(xs[is][1])};
+      int lo = 0, hi = n3-1;
+      if (is>0) {
+        int ka = ks[is-1];
+        lo = (k3-ka>1)?(ka+k3)/2:k3;
+      }
+      if (is<ns-1) {
+        int kb = ks[is+1];
+        hi = (kb-k3>1)?(k3+kb)/2:k3;
+      }
+      for (int i3=lo; i3<k3; ++i3) ss[i3].uses++;
+      for (int i3=k3+1; i3<=hi; ++i3) ss[i3].uses++;
+      if (lo<k3) fronts.add(front(sr,ss,k3,lo,-1));
+      if (hi>k3) fronts.add(front(sr,ss,k3,hi, 1));
+    }
+
+    ExecutorService es = Executors.newFixedThreadPool(max(1,nthread));
+    try {
+      for (Future<Void> f:es.invokeAll(fronts))
+        f.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      es.shutdownNow();
+    }
+
+    float[][][] bs = new float[n3][][];
+    for (int i3=0; i3<n3; ++i3) {
+      Slice si = ss[i3];
+      if (si.xf!=null && si.xb!=null) {
+        bs[i3] = blend(si.xf,si.xb);
+      } else {
+        bs[i3] = (si.xf!=null)?si.xf:si.xb;
+      }
+    }
+    return bs;
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private int _r;
+  private float _d;
+  private int _w;
+  private float _a;
+
+  // A slice shared by propagation fronts. The envelope is computed by the
+  // first front that needs it and released after its last use.
+  private static class Slice {
+    int uses;
+    float[][] env;
+    float[][] xf,xb; // boundaries picked by forward and backward fronts
+    synchronized float[][] envelope(SliceReader sr, int i3) {
+      if (env==null)
+        env = new SaltPicker2().applyForInsAmp(sr.readSlice(i3));
+      float[][] e = env;
+      if (--uses==0) env = null;
+      return e;
+    }
+    synchronized float[][] boundary(int step) {
+      return (step>0)?xf:xb;
+    }
+    synchronized void setBoundary(int step, float[][] xs) {
+      if (step>0) xf = xs; 
+      else        xb = xs;
+    }
+  }
+
+  private Callable<Void> front(
+    final SliceReader sr, final Slice[] ss, 
+    final int k3, final int e3, final int step) 
+  {
+    return new Callable<Void>() {
+      public Void call() {
+        SaltPicker2 sp = new SaltPicker2();
+        float[][] xp = ss[k3].boundary(1);
+        for (int i3=k3+step; i3!=e3+step; i3+=step) {
+          float[][] env = ss[i3].envelope(sr,i3);
+          sp.pickNext(_r,_d,_w,_a,copy(xp[0]),copy(xp[1]),env);
+          float[][] xi = sp.getBoundary();
+          xp = new float[][]{copy(xi[0]),copy(xi[1])};
+          ss[i3].setBoundary(step,xp);
+        }
+        return null;
+      }
+    };
+  }
+
+  // Averages two closed boundaries, after resampling both with the same
+  // number of points, matching their orientations and aligning their
+  // starting points.
+  private static float[][] blend(float[][] xa, float[][] xb) {
+    int n = max(xa[0].length,xb[0].length);
+    float[][] ya = SaltPicker2.resampleClosed(n,xa);
+    float[][] yb = SaltPicker2.resampleClosed(n,xb);
+    int m = n-1;
+    if (area(ya)*area(yb)<0f) {
+      for (int i=0, j=m-1; i<j; ++i, --j) {
+        float t1 = yb[0][i]; yb[0][i] = yb[0][j]; yb[0][j] = t1;
+        float t2 = yb[1][i]; yb[1][i] = yb[1][j]; yb[1][j] = t2;
+      }
+    }
+    int js = 0;
+    float dmin = FLT_MAX;
+    for (int j=0; j<m; ++j) {
+      float d1 = yb[0][j]-ya[0][0];
+      float d2 = yb[1][j]-ya[1][0];
+      float dj = d1*d1+d2*d2;
+      if (dj<dmin) { dmin = dj; js = j; }
+    }
+    float[][] xs = new float[2][n];
+    for (int i=0; i<m; ++i) {
+      int j = (i+js)%m;
+      xs[0][i] = 0.5f*(ya[0][i]+yb[0][j]);
+      xs[1][i] = 0.5f*(ya[1][i]+yb[1][j]);
+    }
+    xs[0][m] = xs[0][0];
+    xs[1][m] = xs[1][0];
+    return xs;
+  }
+
+  // Signed area of a closed boundary.
+  private static float area(float[][] xs) {
+    float a = 0f;
+    int n = xs[0].length;
+    for (int i=1; i<n; ++i)
+      a += xs[0][i-1]*xs[1][i]-xs[0][i]*xs[1][i-1];
+    return 0.5f*a;
+  }
+
+  private static Callable<float[][]> envelope(
+    final SliceReader sr, final int i3)
+  {
+    return new Callable<float[][]>() {
+      public float[][] call() {
+        return new SaltPicker2().applyForInsAmp(sr.readSlice(i3));
+      }
+    };
+  }
+}
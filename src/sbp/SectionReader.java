@@ -0,0 +1,276 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * A 2D seismic section in a file of raw floats, read through memory maps.
+ * <p>
+ * The file contains n2 traces of n1 floats each, in the layout read by
+ * {@code ArrayInputStream.readFloats(float[n2][n1])}. Nothing is read
+ * when a section is opened. Rectangular tiles of samples are read on
+ * demand and kept in a least-recently-used cache with a bounded number
+ * of bytes, so that sections much larger than the heap can be displayed
+ * and picked. A section reader is safe for use by multiple threads.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class SectionReader implements Closeable {
+
+  /**
+   * Opens a section of big-endian floats for reading, with tiles of
+   * 256x256 samples and a 64 MB cache.
+   * @param fileName the file name.
+   * @param n1 number of samples per trace.
+   * @param n2 number of traces.
+   */
+  public SectionReader(String fileName, int n1, int n2) {
+    this(fileName,n1,n2,256,256,64L<<20,ByteOrder.BIG_ENDIAN);
+  }
+
+  /**
+   * Opens a section for reading.
+   * @param fileName the file name.
+   * @param n1 number of samples per trace.
+   * @param n2 number of traces.
+   * @param m1 number of samples per tile in 1st dimension.
+   * @param m2 number of samples per tile in 2nd dimension.
+   * @param maxCacheBytes maximum number of bytes in cached tiles.
+   * @param order the byte order of floats in the file.
+   */
+  public SectionReader(
+    String fileName, int n1, int n2, int m1, int m2,
+    long maxCacheBytes, ByteOrder order)
+  {
+    this(fileName,n1,n2,m1,m2,maxCacheBytes,order,false);
+  }
+
+  /**
+   * Creates a new section file, or replaces an existing one, that can be
+   * both written and read. All samples are initially zero.
+   * @param fileName the file name.
+   * @param n1 number of samples per trace.
+   * @param n2 number of traces.
+   * @return the section.
+   */
+  public static SectionReader create(String fileName, int n1, int n2) {
+    return new SectionReader(
+      fileName,n1,n2,256,256,64L<<20,ByteOrder.BIG_ENDIAN,true);
+  }
+
+  /**
+   * Returns the number of samples per trace.
+   * @return the number of samples.
+   */
+  public int getN1() {
+    return _n1;
+  }
+
+  /**
+   * Returns the number of traces.
+   * @return the number of traces.
+   */
+  public int getN2() {
+    return _n2;
+  }
+
+  /**
+   * Returns the number of samples per tile in 1st dimension.
+   * @return the number of samples.
+   */
+  public int getTileN1() {
+    return _m1;
+  }
+
+  /**
+   * Returns the number of samples per tile in 2nd dimension.
+   * @return the number of samples.
+   */
+  public int getTileN2() {
+    return _m2;
+  }
+
+  /**
+   * Returns a tile, reading it if not already cached. Tiles on the last
+   * row or column may be smaller than others. Returned arrays are shared
+   * and must not be modified.
+   * @param k1 tile index in 1st dimension.
+   * @param k2 tile index in 2nd dimension.
+   * @return array[m2][m1] of tile samples.
+   */
+  public float[][] getTile(int k1, int k2) {
+    Long key = ((long)k2<<32)|k1;
+    synchronized(_tiles) {
+      float[][] t = _tiles.get(key);
+      if (t!=null) return t;
+    }
+    int j1 = k1*_m1, j2 = k2*_m2;
+    int l1 = min(_m1,_n1-j1);
+    int l2 = min(_m2,_n2-j2);
+    float[][] t = new float[l2][l1];
+    for (int i2=0; i2<l2; ++i2)
+      readTrace(j2+i2,j1,l1,t[i2]);
+    synchronized(_tiles) {
+      if (_tiles.put(key,t)==null)
+        _bytes += 4L*l1*l2;
+      while (_bytes>_maxBytes && _tiles.size()>1) {
+        Map.Entry<Long,float[][]> e = _tiles.entrySet().iterator().next();
+        float[][] te = e.getValue();
+        _bytes -= 4L*te.length*te[0].length;
+        _tiles.remove(e.getKey());
+      }
+    }
+    return t;
+  }
+
+  /**
+   * Returns a copy of a rectangular region, assembled from cached tiles.
+   * @param j1 index in 1st dimension of the first sample.
+   * @param j2 index in 2nd dimension of the first sample.
+   * @param l1 number of samples in 1st dimension.
+   * @param l2 number of samples in 2nd dimension.
+   * @return array[l2][l1] of samples.
+   */
+  public float[][] readRegion(int j1, int j2, int l1, int l2) {
+    float[][] x = new float[l2][l1];
+    int k1b = j1/_m1, k1e = (j1+l1-1)/_m1;
+    int k2b = j2/_m2, k2e = (j2+l2-1)/_m2;
+    for (int k2=k2b; k2<=k2e; ++k2) {
+      for (int k1=k1b; k1<=k1e; ++k1) {
+        float[][] t = getTile(k1,k2);
+        int i1b = max(j1,k1*_m1), i1e = min(j1+l1,k1*_m1+t[0].length);
+        int i2b = max(j2,k2*_m2), i2e = min(j2+l2,k2*_m2+t.length);
+        for (int i2=i2b; i2<i2e; ++i2)
+          System.arraycopy(t[i2-k2*_m2],i1b-k1*_m1,x[i2-j2],i1b-j1,i1e-i1b);
+      }
+    }
+    return x;
+  }
+
+  /**
+   * Reads part of a trace directly from the file, bypassing the cache.
+   * @param i2 the trace index.
+   * @param j1 index of the first sample to read.
+   * @param l1 number of samples to read.
+   * @param x array into which to read samples.
+   */
+  public void readTrace(int i2, int j1, int l1, float[] x) {
+    buffer(i2,j1).get(x,0,l1);
+  }
+
+  /**
+   * Writes a trace to a section created for writing. Cached tiles with
+   * samples of the trace are discarded.
+   * @param i2 the trace index.
+   * @param x array[n1] of trace samples.
+   */
+  public void writeTrace(int i2, float[] x) {
+    if (!_writable)
+      throw new IllegalStateException("section is not writable");
+    buffer(i2,0).put(x,0,_n1);
+    int k2 = i2/_m2;
+    synchronized(_tiles) {
+      for (int k1=0; k1*_m1<_n1; ++k1) {
+        float[][] t = _tiles.remove(((long)k2<<32)|k1);
+        if (t!=null) _bytes -= 4L*t.length*t[0].length;
+      }
+    }
+  }
+
+  /**
+   * Reads the entire section into an array.
+   * @return array[n2][n1] of samples.
+   */
+  public float[][] readAll() {
+    float[][] x = new float[_n2][_n1];
+    for (int i2=0; i2<_n2; ++i2)
+      readTrace(i2,0,_n1,x[i2]);
+    return x;
+  }
+
+  /**
+   * Closes this section and discards all cached tiles.
+   */
+  public void close() throws IOException {
+    synchronized(_tiles) {
+      _tiles.clear();
+      _bytes = 0L;
+    }
+    if (_writable) {
+      for (MappedByteBuffer m:_maps)
+        m.force();
+    }
+    _raf.close();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private int _n1,_n2; // section dimensions
+  private int _m1,_m2; // tile dimensions
+  private int _tracesPerMap; // number of traces in each mapped buffer
+  private boolean _writable;
+  private ByteOrder _order;
+  private RandomAccessFile _raf;
+  private MappedByteBuffer[] _maps;
+  private long _maxBytes,_bytes; // maximum and current bytes in cache
+  private LinkedHashMap<Long,float[][]> _tiles =
+    new LinkedHashMap<Long,float[][]>(64,0.75f,true);
+
+  private SectionReader(
+    String fileName, int n1, int n2, int m1, int m2,
+    long maxCacheBytes, ByteOrder order, boolean writable)
+  {
+    _n1 = n1;
+    _n2 = n2;
+    _m1 = m1;
+    _m2 = m2;
+    _maxBytes = maxCacheBytes;
+    _order = order;
+    _writable = writable;
+    long nbyte = 4L*n1*n2;
+    _tracesPerMap = max(1,Integer.MAX_VALUE/(4*n1));
+    int nmap = (n2+_tracesPerMap-1)/_tracesPerMap;
+    try {
+      _raf = new RandomAccessFile(fileName,writable?"rw":"r");
+      if (writable) {
+        _raf.setLength(nbyte);
+      } else if (_raf.length()<nbyte) {
+        _raf.close();
+        throw new IOException(fileName+" has fewer than "+nbyte+" bytes");
+      }
+      FileChannel fc = _raf.getChannel();
+      FileChannel.MapMode mode = writable ?
+        FileChannel.MapMode.READ_WRITE :
+        FileChannel.MapMode.READ_ONLY;
+      _maps = new MappedByteBuffer[nmap];
+      for (int im=0; im<nmap; ++im) {
+        long i2 = (long)im*_tracesPerMap;
+        long l2 = min(_tracesPerMap,n2-i2);
+        _maps[im] = fc.map(mode,4L*n1*i2,4L*n1*l2);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Returns a float buffer positioned at a sample. Buffers are duplicated
+  // so that threads do not share positions.
+  private FloatBuffer buffer(int i2, int i1) {
+    ByteBuffer bb = _maps[i2/_tracesPerMap].duplicate();
+    bb.order(_order);
+    bb.position(4*((i2%_tracesPerMap)*_n1+i1));
+    return bb.asFloatBuffer();
+  }
+}
@@ -0,0 +1,321 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+import edu.mines.jtk.util.*;
+import static edu.mines.jtk.util.ArrayMath.*;
+
+/**
+ * Streaming reader of SEG-Y files with traces of constant length.
+ * <p>
+ * Traces are read in chunks through direct buffers and converted, in
+ * parallel, from IBM or IEEE floats or from integers to IEEE floats. A
+ * file can be converted to the raw big-endian floats read by
+ * {@code ArrayInputStream} and {@link SectionReader}, with memory use that
+ * does not depend on the size of the file, or read into arrays for a 2D
+ * section or a 3D volume. Headers are assumed big-endian, as in the
+ * standard, unless the data format code is valid only when little-endian.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class SegyReader implements Closeable {
+
+  /**
+   * Opens a SEG-Y file and reads its binary header.
+   * @param fileName the file name.
+   */
+  public SegyReader(String fileName) {
+    try {
+      _raf = new RandomAccessFile(fileName,"r");
+      _fc = _raf.getChannel();
+      ByteBuffer bh = ByteBuffer.allocate(400);
+      readFully(bh,3200L);
+      _order = ByteOrder.BIG_ENDIAN;
+      int format = bh.getShort(24);
+      if (sampleBytes(format)==0) {
+        int swapped = Short.reverseBytes((short)format);
+        if (sampleBytes(swapped)==0)
+          throw new IOException("unsupported data format code "+format);
+        _order = ByteOrder.LITTLE_ENDIAN;
+        bh.order(_order);
+        format = swapped;
+      }
+      _format = format;
+      _d1 = bh.getShort(16)*1.0e-6f;
+      _n1 = bh.getShort(20)&0xffff;
+      int next = max(0,bh.getShort(304));
+      _offset = 3600L+3200L*next;
+      if (_n1==0) { // samples per trace only in first trace header
+        ByteBuffer th = ByteBuffer.allocate(240).order(_order);
+        readFully(th,_offset);
+        _n1 = th.getShort(114)&0xffff;
+      }
+      _traceBytes = 240+_n1*sampleBytes(_format);
+      _n2 = (int)((_fc.size()-_offset)/_traceBytes);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Returns the number of samples per trace.
+   * @return the number of samples.
+   */
+  public int getN1() {
+    return _n1;
+  }
+
+  /**
+   * Returns the number of traces.
+   * @return the number of traces.
+   */
+  public int getN2() {
+    return _n2;
+  }
+
+  /**
+   * Returns the sampling interval, in seconds or meters, from the binary
+   * header.
+   * @return the sampling interval.
+   */
+  public float getD1() {
+    return _d1;
+  }
+
+  /**
+   * Returns the data format code from the binary header.
+   * @return the format code; 1 for IBM floats, 5 for IEEE floats.
+   */
+  public int getFormat() {
+    return _format;
+  }
+
+  /**
+   * Sets the scheduler for parallel loops over chunks of traces. Stages 
+   * of loops are named convert and readTraces.
+   * @param scheduler the scheduler; null, for {@link Parallel}.
+   */
+  public void setScheduler(LoopScheduler scheduler) {
+    _scheduler = scheduler;
+  }
+
+  /**
+   * Converts all traces to a file of raw big-endian floats.
+   * @param fileName the name of the file to write.
+   */
+  public void convert(String fileName) {
+    final RandomAccessFile raf;
+    try {
+      raf = new RandomAccessFile(fileName,"rw");
+      raf.setLength(4L*_n1*_n2);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    final FileChannel fc = raf.getChannel();
+    final int n1 = _n1;
+    final int nc = (_n2+CHUNK-1)/CHUNK;
+    LoopScheduler.loop(_scheduler,"convert",nc,new Parallel.LoopInt() {
+      public void compute(int ic) {
+        int j2 = ic*CHUNK;
+        int l2 = min(CHUNK,_n2-j2);
+        ByteBuffer in = readChunk(j2,l2);
+        ByteBuffer out = _out.get();
+        out.clear();
+        FloatBuffer fb = out.asFloatBuffer();
+        float[] x = _trace.get();
+        for (int i2=0; i2<l2; ++i2) {
+          convertTrace(in,i2,x);
+          fb.put(x,0,n1);
+        }
+        out.limit(4*n1*l2);
+        long pos = 4L*n1*j2;
+        try {
+          while (out.hasRemaining())
+            pos += fc.write(out,pos);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    try {
+      raf.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads all traces into a 2D section.
+   * @return array[n2][n1] of samples.
+   */
+  public float[][] readSection() {
+    float[][] x = new float[_n2][_n1];
+    readTraces(x);
+    return x;
+  }
+
+  /**
+   * Reads all traces into a 3D volume. Traces are assumed to be ordered
+   * with the 2nd dimension varying fastest.
+   * @param n2 number of traces in each slice.
+   * @return array[n3][n2][n1] of samples.
+   */
+  public float[][][] readVolume(int n2) {
+    int n3 = _n2/n2;
+    if (n2*n3!=_n2)
+      throw new IllegalArgumentException(
+        _n2+" traces is not a multiple of n2 = "+n2);
+    float[][][] x = new float[n3][][];
+    float[][] xs = new float[_n2][];
+    for (int i3=0; i3<n3; ++i3) {
+      x[i3] = new float[n2][_n1];
+      System.arraycopy(x[i3],0,xs,i3*n2,n2);
+    }
+    readTraces(xs);
+    return x;
+  }
+
+  /**
+   * Converts a sample from IBM floating point to IEEE floating point.
+   * Values too small for normalized IEEE floats become zero; values too
+   * large become infinite.
+   * @param ibm bits of the IBM float.
+   * @return the IEEE float.
+   */
+  public static float ibmToFloat(int ibm) {
+    int fm = ibm&0x00ffffff;
+    if (fm==0)
+      return 0f;
+    int e = ((ibm&0x7f000000)>>>22)-130; // 4*(exponent-64)-1+127
+    while ((fm&0x00800000)==0) {
+      fm <<= 1;
+      --e;
+    }
+    int s = ibm&0x80000000;
+    if (e<=0)
+      return Float.intBitsToFloat(s);
+    if (e>=255)
+      return Float.intBitsToFloat(s|0x7f800000);
+    return Float.intBitsToFloat(s|(e<<23)|(fm&0x007fffff));
+  }
+
+  /**
+   * Closes this reader.
+   */
+  public void close() throws IOException {
+    _raf.close();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int CHUNK = 256; // number of traces read at once
+
+  private int _n1,_n2; // samples per trace, number of traces
+  private float _d1; // sampling interval
+  private int _format; // data format code
+  private int _traceBytes; // bytes per trace, including header
+  private long _offset; // byte offset of the first trace
+  private ByteOrder _order;
+  private RandomAccessFile _raf;
+  private FileChannel _fc;
+  private LoopScheduler _scheduler; // null, for Parallel
+
+  // Direct buffers for each thread, reused for all chunks.
+  private ThreadLocal<ByteBuffer> _in = new ThreadLocal<ByteBuffer>() {
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(CHUNK*_traceBytes).order(_order);
+    }
+  };
+  private ThreadLocal<ByteBuffer> _out = new ThreadLocal<ByteBuffer>() {
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocateDirect(4*CHUNK*_n1)
+                       .order(ByteOrder.BIG_ENDIAN);
+    }
+  };
+  private ThreadLocal<float[]> _trace = new ThreadLocal<float[]>() {
+    protected float[] initialValue() {
+      return new float[_n1];
+    }
+  };
+
+  private static int sampleBytes(int format) {
+    switch (format) {
+      case 1: case 2: case 5: return 4;
+      case 3: return 2;
+      case 8: return 1;
+      default: return 0;
+    }
+  }
+
+  private void readFully(ByteBuffer bb, long pos) throws IOException {
+    while (bb.hasRemaining()) {
+      int n = _fc.read(bb,pos);
+      if (n<0)
+        throw new EOFException("unexpected end of SEG-Y file");
+      pos += n;
+    }
+  }
+
+  // Reads a chunk of consecutive traces, with headers, into the direct
+  // buffer of the calling thread.
+  private ByteBuffer readChunk(int j2, int l2) {
+    ByteBuffer in = _in.get();
+    in.clear();
+    in.limit(l2*_traceBytes);
+    try {
+      readFully(in,_offset+(long)j2*_traceBytes);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return in;
+  }
+
+  // Converts the samples of one trace in a chunk to floats.
+  private void convertTrace(ByteBuffer in, int i2, float[] x) {
+    int p = i2*_traceBytes+240;
+    switch (_format) {
+      case 1:
+        for (int i1=0; i1<_n1; ++i1, p+=4)
+          x[i1] = ibmToFloat(in.getInt(p));
+        break;
+      case 2:
+        for (int i1=0; i1<_n1; ++i1, p+=4)
+          x[i1] = in.getInt(p);
+        break;
+      case 3:
+        for (int i1=0; i1<_n1; ++i1, p+=2)
+          x[i1] = in.getShort(p);
+        break;
+      case 5:
+        for (int i1=0; i1<_n1; ++i1, p+=4)
+          x[i1] = in.getFloat(p);
+        break;
+      case 8:
+        for (int i1=0; i1<_n1; ++i1, ++p)
+          x[i1] = in.get(p);
+        break;
+    }
+  }
+
+  private void readTraces(final float[][] x) {
+    final int nc = (_n2+CHUNK-1)/CHUNK;
+    LoopScheduler.loop(_scheduler,"readTraces",nc,new Parallel.LoopInt() {
+      public void compute(int ic) {
+        int j2 = ic*CHUNK;
+        int l2 = min(CHUNK,_n2-j2);
+        ByteBuffer in = readChunk(j2,l2);
+        for (int i2=0; i2<l2; ++i2)
+          convertTrace(in,i2,x[j2+i2]);
+      }
+    });
+  }
+}
@@ -0,0 +1,299 @@
+/****************************************************************************
+Copyright (c) 2026, Colorado School of Mines and others. All rights reserved.
+This program and accompanying materials are made available under the terms of
+the Common Public License - v1.0, which accompanies this distribution, and is
+available at http://www.eclipse.org/legal/cpl-v10.html
+****************************************************************************/
+package sbp;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of a session of picking salt bodies in a 2D
+ * section, so that picks can be recovered after a crash.
+ * <p>
+ * Each record contains the control points and boundaries of the bodies
+ * changed by one edit, or of all bodies if bodies were added or removed.
+ * Boundaries are encoded compactly, as in {@link PickHistory2}. Records
+ * are encoded by the thread that makes edits, which does not wait, and
+ * are appended to a memory-mapped file by a writer thread, which forces
+ * all records queued to disk together. Records written are therefore not
+ * lost if the program crashes, and records in progress are detected with
+ * checksums. Recovery replays records in order, with cost proportional to
+ * the number of edits, and does not depend on the size of the image.
+ * When a journal is opened, existing records are replaced by one record
+ * with all bodies.
+ * @author agent
+ * @version 2026.10.19
+ */
+public class SessionJournal implements Closeable {
+
+  /**
+   * Replays a journal, replacing all bodies and their control points.
+   * Nothing is changed if the journal does not exist, is empty, or is for
+   * a section with different dimensions.
+   * @param fileName the journal file name.
+   * @param n1 number of samples in 1st dimension of the section.
+   * @param n2 number of samples in 2nd dimension of the section.
+   * @param bodies the salt bodies.
+   * @param points list of control points, one per body.
+   * @return index of the current body; -1, if nothing was replayed.
+   */
+  public static int replay(
+    String fileName, int n1, int n2,
+    SaltBodies2 bodies, ArrayList<ControlPoints2> points)
+  {
+    File file = new File(fileName);
+    if (!file.exists() || file.length()<HEADER_BYTES)
+      return -1;
+    ByteBuffer bb;
+    try {
+      RandomAccessFile raf = new RandomAccessFile(file,"r");
+      try {
+        FileChannel fc = raf.getChannel();
+        bb = fc.map(FileChannel.MapMode.READ_ONLY,0,fc.size());
+      } finally {
+        raf.close();
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    if (bb.getInt()!=MAGIC || bb.getInt()>VERSION ||
+        bb.getInt()!=n1 || bb.getInt()!=n2)
+      return -1;
+    int ib = -1;
+    CRC32 crc = new CRC32();
+    while (bb.remaining()>=8) {
+      int nbyte = bb.getInt();
+      int check = bb.getInt();
+      if (nbyte<=0 || nbyte>bb.remaining())
+        break; // end of journal, or a record not completely written
+      ByteBuffer rb = bb.slice();
+      rb.limit(nbyte);
+      crc.reset();
+      crc.update(rb);
+      rb.rewind();
+      if ((int)crc.getValue()!=check)
+        break;
+      ib = apply(rb,n1,n2,bodies,points);
+      bb.position(bb.position()+nbyte);
+    }
+    return ib;
+  }
+
+  /**
+   * Opens a journal, which begins with one record of all bodies.
+   * @param fileName the journal file name.
+   * @param n1 number of samples in 1st dimension of the section.
+   * @param n2 number of samples in 2nd dimension of the section.
+   * @param bodies the salt bodies; referenced, not copied.
+   * @param points list of control points, one per body; referenced.
+   * @param ib index of the current body.
+   */
+  public SessionJournal(
+    String fileName, int n1, int n2,
+    SaltBodies2 bodies, ArrayList<ControlPoints2> points, int ib)
+  {
+    _n1 = n1;
+    _n2 = n2;
+    _bodies = bodies;
+    _points = points;
+
+    // Write header and all bodies to a new file, which then atomically
+    // replaces any existing journal, and map the end of that file.
+    try {
+      Path path = Paths.get(fileName).toAbsolutePath();
+      Path temp = path.resolveSibling(path.getFileName()+".tmp");
+      byte[] r = encode(ib,null);
+      ByteBuffer bb = ByteBuffer.allocate(HEADER_BYTES+8+r.length);
+      bb.putInt(MAGIC).putInt(VERSION).putInt(n1).putInt(n2);
+      bb.putInt(r.length).putInt(checksum(r)).put(r).flip();
+      FileChannel fc = FileChannel.open(temp,
+        StandardOpenOption.CREATE,StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+      try {
+        while (bb.hasRemaining())
+          fc.write(bb);
+        fc.force(false);
+      } finally {
+        fc.close();
+      }
+      Files.move(temp,path,StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+      _raf = new RandomAccessFile(path.toFile(),"rw");
+      _fc = _raf.getChannel();
+      _position = _fc.size();
+      _map = _fc.map(FileChannel.MapMode.READ_WRITE,_position,CHUNK_BYTES);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    _writer = new Thread(new Runnable() {
+      public void run() {
+        write();
+      }
+    },"SessionJournal-writer");
+    _writer.setDaemon(true);
+    _writer.start();
+  }
+
+  /**
+   * Records bodies that have changed. Control points and boundaries are
+   * encoded before this method returns, but are written later.
+   * @param ib index of the current body.
+   * @param ibs indices of bodies changed; null, for all bodies.
+   */
+  public void record(int ib, int[] ibs) {
+    if (_closed)
+      throw new IllegalStateException("journal is closed");
+    _queue.add(encode(ib,ibs));
+  }
+
+  /**
+   * Writes all records, forces them to disk, and closes this journal.
+   */
+  public void close() throws IOException {
+    if (_closed) return;
+    _closed = true;
+    _queue.add(END);
+    try {
+      _writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    _map.force();
+    _raf.close();
+  }
+
+  ///////////////////////////////////////////////////////////////////////////
+  // private
+
+  private static final int MAGIC = 0x53424a4e; // "SBJN"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 16;
+  private static final int CHUNK_BYTES = 1<<22; // bytes mapped at once
+  private static final byte[] END = new byte[0]; // ends the writer
+
+  private int _n1,_n2;
+  private SaltBodies2 _bodies;
+  private ArrayList<ControlPoints2> _points;
+  private RandomAccessFile _raf;
+  private FileChannel _fc;
+  private MappedByteBuffer _map; // mapped region of the file
+  private long _position; // file position of the mapped region
+  private Thread _writer;
+  private volatile boolean _closed;
+  private LinkedBlockingQueue<byte[]> _queue =
+    new LinkedBlockingQueue<byte[]>();
+
+  // Encodes a record of the current body and the bodies changed.
+  private byte[] encode(int ib, int[] ibs) {
+    int nb = _bodies.countBodies();
+    if (ibs==null) {
+      ibs = new int[nb];
+      for (int jb=0; jb<nb; ++jb) ibs[jb] = jb;
+    }
+    byte[][] bs = new byte[ibs.length][];
+    int nbyte = 12;
+    for (int jb=0; jb<ibs.length; ++jb) {
+      bs[jb] = PickHistory2.encodeBoundary(
+        _bodies.getPicker(ibs[jb]),_points.get(ibs[jb]));
+      nbyte += 12+8*_points.get(ibs[jb]).size()+bs[jb].length;
+    }
+    ByteBuffer rb = ByteBuffer.allocate(nbyte);
+    rb.putInt(nb).putInt(ib).putInt(ibs.length);
+    for (int jb=0; jb<ibs.length; ++jb) {
+      float[][] ps = _points.get(ibs[jb]).getPoints();
+      rb.putInt(ibs[jb]).putInt(ps[0].length);
+      rb.asFloatBuffer().put(ps[0]).put(ps[1]);
+      rb.position(rb.position()+8*ps[0].length);
+      rb.putInt(bs[jb].length).put(bs[jb]);
+    }
+    return rb.array();
+  }
+
+  // Applies a record to bodies and their control points.
+  private static int apply(
+    ByteBuffer rb, int n1, int n2,
+    SaltBodies2 bodies, ArrayList<ControlPoints2> points)
+  {
+    int nb = rb.getInt();
+    int ib = rb.getInt();
+    while (bodies.countBodies()>nb) {
+      bodies.removeBody(bodies.countBodies()-1);
+      points.remove(points.size()-1);
+    }
+    while (bodies.countBodies()<nb) {
+      bodies.addBody();
+      points.add(new ControlPoints2(n1,n2));
+    }
+    int nc = rb.getInt();
+    for (int ic=0; ic<nc; ++ic) {
+      int jb = rb.getInt();
+      int np = rb.getInt();
+      float[] x1 = new float[np];
+      float[] x2 = new float[np];
+      rb.asFloatBuffer().get(x1).get(x2);
+      rb.position(rb.position()+8*np);
+      ControlPoints2 cp = points.get(jb);
+      cp.clear();
+      for (int ip=0; ip<np; ++ip)
+        cp.add(x1[ip],x2[ip]);
+      byte[] b = new byte[rb.getInt()];
+      rb.get(b);
+      PickHistory2.decodeBoundary(b,bodies.getPicker(jb),cp);
+    }
+    return ib;
+  }
+
+  // Appends queued records in groups, forcing each group to disk.
+  private void write() {
+    ArrayList<byte[]> group = new ArrayList<byte[]>();
+    try {
+      while (true) {
+        group.add(_queue.take());
+        _queue.drainTo(group);
+        boolean end = false;
+        for (byte[] r:group) {
+          if (r==END) end = true;
+          else append(r);
+        }
+        group.clear();
+        _map.force();
+        if (end) return;
+      }
+    } catch (InterruptedException e) {
+      // exit
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static int checksum(byte[] r) {
+    CRC32 crc = new CRC32();
+    crc.update(r,0,r.length);
+    return (int)crc.getValue();
+  }
+
+  // Appends one record, with its length and checksum. The length is
+  // written last, so that a record is not replayed until complete.
+  private void append(byte[] r) throws IOException {
+    if (_map.remaining()<8+r.length+4) {
+      _map.force();
+      long pos = _position+_map.position();
+      _map = _fc.map(FileChannel.MapMode.READ_WRITE,pos,
+                     Math.max(CHUNK_BYTES,8+r.length+4));
+      _position = pos;
+    }
+    int p = _map.position();
+    _map.position(p+4);
+    _map.putInt(checksum(r));
+    _map.put(r);
+    _map.putInt(p,r.length);
+  }
+}